@@ -0,0 +1,42 @@
+package org.eclipse.tesla.incremental;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.Closeable;
+
+/**
+ * A handle to one or more build contexts that have been made active for the current thread. Closing the scope restores
+ * the previously active build contexts of the thread. A scope must be closed by the same thread that entered it,
+ * preferably from a {@code finally} block:
+ * 
+ * <pre>
+ * BuildContextScope scope = buildContextManager.enterContext( buildContext );
+ * try
+ * {
+ *     // calls to buildContextManager.addOutput() etc. get routed to buildContext
+ * }
+ * finally
+ * {
+ *     scope.close();
+ * }
+ * </pre>
+ * 
+ * @see ConcurrentBuildContextManager#enterContext(BuildContext)
+ */
+public interface BuildContextScope
+    extends Closeable
+{
+
+    /**
+     * Deactivates the build contexts of this scope for the current thread, restoring the build contexts that were active
+     * before the scope was entered. Closing an already closed scope has no effect.
+     */
+    void close();
+
+}
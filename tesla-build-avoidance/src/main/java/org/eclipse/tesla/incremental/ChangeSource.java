@@ -0,0 +1,35 @@
+package org.eclipse.tesla.incremental;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * Supplies the paths that changed since the previous build, e.g. from the resource deltas of an IDE or from the file
+ * list of a version control diff. A build context manager consults its change source before scanning an input
+ * directory during an incremental build and, if the changes are known, merely examines the changed paths instead of
+ * the entire directory tree.
+ */
+public interface ChangeSource
+{
+
+    /**
+     * Gets the paths below the specified base directory that have been added, modified or deleted since the previous
+     * build. Changes to the contents of a directory need to be reported by listing the affected paths individually,
+     * reporting only the directory itself is not sufficient.
+     * 
+     * @param basedir The absolute path to the input directory, must not be {@code null}.
+     * @return The (possibly empty) collection of changed paths, relative to the base directory and using the
+     *         platform's file separator, or {@code null} if the changes are unknown and the directory needs to be
+     *         scanned.
+     */
+    Collection<String> getChangedPaths( File basedir );
+
+}
@@ -0,0 +1,71 @@
+package org.eclipse.tesla.incremental;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Extends the {@link BuildContextManager} with support for hosts that build several projects concurrently. These
+ * methods are kept out of {@link BuildContextManager} itself such that existing implementations of that interface
+ * remain compatible, callers should check whether the manager at hand implements this interface before using them.
+ */
+public interface ConcurrentBuildContextManager
+    extends BuildContextManager
+{
+
+    /**
+     * Requests the build state of the specified build context to be loaded in the background. Hosts that know the
+     * build contexts to be created up front, e.g. a reactor build at session start, can use this method to warm up the
+     * states of all those contexts in parallel such that a later call to {@link #newContext(File, File, String)} with
+     * the same arguments finds its state already in memory. This method returns immediately and is merely a hint, i.e.
+     * implementations are free to ignore it.
+     * 
+     * @param outputDirectory The output directory of the build context, must not be {@code null}.
+     * @param stateDirectory The directory where the build state is stored, must not be {@code null}.
+     * @param builderId The unique identifier of the component using the build context, must not be {@code null}.
+     * @see #newContext(File, File, String)
+     */
+    void preloadContext( File outputDirectory, File stateDirectory, String builderId );
+
+    /**
+     * Makes the specified build context active for the current thread. Build contexts created via
+     * {@link #newContext(File, File, String)} are automatically active for the creating thread and any threads it
+     * starts afterwards. Threads that already existed before, e.g. the workers of a thread pool, need to explicitly
+     * enter the context in order to have the output-related methods of this manager participate in the context.
+     * 
+     * @param context The build context to make active, must not be {@code null}.
+     * @return The scope to close once the current thread is done with the build context, never {@code null}.
+     * @see #wrapExecutor(Executor)
+     */
+    BuildContextScope enterContext( BuildContext context );
+
+    /**
+     * Decorates the specified executor such that each task submitted to it runs within the build contexts that are
+     * active for the thread submitting the task.
+     * 
+     * @param executor The executor to decorate, must not be {@code null}.
+     * @return The decorated executor, never {@code null}.
+     * @see #enterContext(BuildContext)
+     */
+    Executor wrapExecutor( Executor executor );
+
+    /**
+     * Decorates the specified executor service such that each task submitted to it runs within the build contexts that
+     * are active for the thread submitting the task. Shutting down the returned service shuts down the original
+     * service.
+     * 
+     * @param executor The executor service to decorate, must not be {@code null}.
+     * @return The decorated executor service, never {@code null}.
+     * @see #enterContext(BuildContext)
+     */
+    ExecutorService wrapExecutorService( ExecutorService executor );
+
+}
@@ -60,6 +60,8 @@ public class PathSet
 
     private boolean caseSensitive = true;
 
+    private boolean gitIgnoreExcludes;
+
     private Kind kind = Kind.FILES_ONLY;
 
     /**
@@ -206,6 +208,7 @@ public class PathSet
         addExcludes( pathSet.getExcludes() );
         setDefaultExcludes( pathSet.isDefaultExcludes() );
         setCaseSensitive( pathSet.isCaseSensitive() );
+        setGitIgnoreExcludes( pathSet.isGitIgnoreExcludes() );
         setKind( pathSet.getKind() );
     }
 
@@ -390,6 +393,36 @@ public class PathSet
         return this;
     }
 
+    /**
+     * Indicates whether the paths ignored by the {@code .gitignore} files of the base directory, its subdirectories and
+     * its ancestor directories within the enclosing git work tree are excluded in addition to the configured
+     * exclusions.
+     * 
+     * @return {@code true} when excluding paths ignored by git, {@code false} when only using the configured
+     *         exclusions.
+     */
+    public boolean isGitIgnoreExcludes()
+    {
+        return gitIgnoreExcludes;
+    }
+
+    /**
+     * Specifies whether the paths ignored by the {@code .gitignore} files of the base directory, its subdirectories and
+     * its ancestor directories within the enclosing git work tree should be excluded in addition to the configured
+     * exclusions. Directories ignored this way are not scanned at all, which pays off for large ignored trees like
+     * build outputs or downloaded dependencies. The rules of {@code .git/info/exclude} are considered as well, but not
+     * those of the global git configuration.
+     * 
+     * @param gitIgnoreExcludes {@code true} to exclude paths ignored by git, {@code false} to only use the configured
+     *            exclusions.
+     * @return This path set for chaining, never {@code null}.
+     */
+    public PathSet setGitIgnoreExcludes( boolean gitIgnoreExcludes )
+    {
+        this.gitIgnoreExcludes = gitIgnoreExcludes;
+        return this;
+    }
+
     /**
      * Gets the kind of paths included in this path set.
      * 
@@ -450,7 +483,8 @@ public class PathSet
         PathSet that = (PathSet) obj;
         return this.basedir.equals( that.basedir ) && this.kind.equals( that.kind )
             && this.includes.equals( that.includes ) && this.excludes.equals( that.excludes )
-            && this.defaultExcludes == that.defaultExcludes && this.caseSensitive == that.caseSensitive;
+            && this.defaultExcludes == that.defaultExcludes && this.caseSensitive == that.caseSensitive
+            && this.gitIgnoreExcludes == that.gitIgnoreExcludes;
     }
 
     @Override
@@ -463,6 +497,7 @@ public class PathSet
         hash = hash * 31 + excludes.hashCode();
         hash = hash * 31 + ( defaultExcludes ? 1 : 0 );
         hash = hash * 31 + ( caseSensitive ? 1 : 0 );
+        hash = hash * 31 + ( gitIgnoreExcludes ? 1 : 0 );
         return hash;
     }
 
@@ -470,7 +505,8 @@ public class PathSet
     public String toString()
     {
         return getBasedir() + ", includes = " + getIncludes() + ", excludes = " + getExcludes()
-            + ( isDefaultExcludes() ? "*" : "" ) + ", kind = " + getKind() + ( isCaseSensitive() ? "*" : "" );
+            + ( isDefaultExcludes() ? "*" : "" ) + ( isGitIgnoreExcludes() ? " + .gitignore" : "" ) + ", kind = "
+            + getKind() + ( isCaseSensitive() ? "*" : "" );
     }
 
 }
@@ -0,0 +1,199 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects cumulative counters and timers of a build context manager. The statistics only weakly reference the manager
+ * such that a registered MBean does not prevent the manager from being garbage collected.
+ */
+class BuildContextManagerStatistics
+    implements BuildContextManagerStatisticsMBean
+{
+
+    private final WeakReference<DefaultBuildContextManager> manager;
+
+    private final AtomicLong loadCount = new AtomicLong();
+
+    private final AtomicLong loadTime = new AtomicLong();
+
+    private final AtomicLong saveCount = new AtomicLong();
+
+    private final AtomicLong saveTime = new AtomicLong();
+
+    private final AtomicLong scanCount = new AtomicLong();
+
+    private final AtomicLong scanTime = new AtomicLong();
+
+    private final AtomicLong commitCount = new AtomicLong();
+
+    private final AtomicLong commitTime = new AtomicLong();
+
+    public BuildContextManagerStatistics( DefaultBuildContextManager manager )
+    {
+        this.manager = new WeakReference<DefaultBuildContextManager>( manager );
+    }
+
+    void stateLoaded( long start )
+    {
+        loadCount.incrementAndGet();
+        loadTime.addAndGet( System.nanoTime() - start );
+    }
+
+    void stateSaved( long start )
+    {
+        saveCount.incrementAndGet();
+        saveTime.addAndGet( System.nanoTime() - start );
+    }
+
+    void pathsScanned( long start )
+    {
+        scanCount.incrementAndGet();
+        scanTime.addAndGet( System.nanoTime() - start );
+    }
+
+    void contextCommitted( long start )
+    {
+        commitCount.incrementAndGet();
+        commitTime.addAndGet( System.nanoTime() - start );
+    }
+
+    private static long toMillis( AtomicLong nanos )
+    {
+        return nanos.get() / 1000000;
+    }
+
+    public int getCachedStateCount()
+    {
+        DefaultBuildContextManager manager = this.manager.get();
+        return ( manager != null ) ? manager.getCachedStates().size() : 0;
+    }
+
+    public int getPendingStateCount()
+    {
+        DefaultBuildContextManager manager = this.manager.get();
+        return ( manager != null ) ? manager.getPendingStateCount() : 0;
+    }
+
+    public long getStateFileBytes()
+    {
+        long bytes = 0;
+        DefaultBuildContextManager manager = this.manager.get();
+        if ( manager != null )
+        {
+            for ( BuildState buildState : manager.getCachedStates() )
+            {
+                bytes += buildState.getSerializedSize();
+            }
+        }
+        return bytes;
+    }
+
+    public int getOpenContextCount()
+    {
+        DefaultBuildContextManager manager = this.manager.get();
+        return ( manager != null ) ? manager.getOpenContexts().size() : 0;
+    }
+
+    public String[] getOpenContextsPerThread()
+    {
+        Map<String, Integer> counts = new TreeMap<String, Integer>();
+        DefaultBuildContextManager manager = this.manager.get();
+        if ( manager != null )
+        {
+            for ( String thread : manager.getOpenContexts().values() )
+            {
+                Integer count = counts.get( thread );
+                counts.put( thread, Integer.valueOf( ( count != null ) ? count.intValue() + 1 : 1 ) );
+            }
+        }
+        String[] result = new String[counts.size()];
+        int i = 0;
+        for ( Map.Entry<String, Integer> entry : counts.entrySet() )
+        {
+            result[i++] = entry.getKey() + ": " + entry.getValue();
+        }
+        return result;
+    }
+
+    public long getLoadCount()
+    {
+        return loadCount.get();
+    }
+
+    public long getLoadTimeMillis()
+    {
+        return toMillis( loadTime );
+    }
+
+    public long getSaveCount()
+    {
+        return saveCount.get();
+    }
+
+    public long getSaveTimeMillis()
+    {
+        return toMillis( saveTime );
+    }
+
+    public long getScanCount()
+    {
+        return scanCount.get();
+    }
+
+    public long getScanTimeMillis()
+    {
+        return toMillis( scanTime );
+    }
+
+    public long getCommitCount()
+    {
+        return commitCount.get();
+    }
+
+    public long getCommitTimeMillis()
+    {
+        return toMillis( commitTime );
+    }
+
+    public void evictBuildStates()
+    {
+        DefaultBuildContextManager manager = this.manager.get();
+        if ( manager != null )
+        {
+            manager.evictBuildStates();
+        }
+    }
+
+    public void flushBuildStates()
+    {
+        DefaultBuildContextManager manager = this.manager.get();
+        if ( manager != null )
+        {
+            manager.flushBuildStates();
+        }
+    }
+
+    public void resetStatistics()
+    {
+        loadCount.set( 0 );
+        loadTime.set( 0 );
+        saveCount.set( 0 );
+        saveTime.set( 0 );
+        scanCount.set( 0 );
+        scanTime.set( 0 );
+        commitCount.set( 0 );
+        commitTime.set( 0 );
+    }
+
+}
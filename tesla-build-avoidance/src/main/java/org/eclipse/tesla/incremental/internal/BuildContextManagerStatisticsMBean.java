@@ -0,0 +1,126 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+/**
+ * The management interface exposing the internals of a {@link DefaultBuildContextManager} to JMX clients. The MBean
+ * is only registered if the system property {@value DefaultBuildContextManager#JMX_PROPERTY} is set to {@code true}.
+ */
+public interface BuildContextManagerStatisticsMBean
+{
+
+    /**
+     * Gets the number of build states currently cached in memory.
+     * 
+     * @return The number of cached build states.
+     */
+    int getCachedStateCount();
+
+    /**
+     * Gets the number of build states currently being loaded in the background.
+     * 
+     * @return The number of pending build states.
+     */
+    int getPendingStateCount();
+
+    /**
+     * Gets the total length of the state files backing the cached build states, as of their last load or save. This is
+     * not a measure of heap usage, the in-memory form of a build state usually occupies a multiple of its file size.
+     * 
+     * @return The total length of the state files of the cached build states in bytes.
+     */
+    long getStateFileBytes();
+
+    /**
+     * Gets the number of build contexts that have been created but not yet closed.
+     * 
+     * @return The number of open build contexts.
+     */
+    int getOpenContextCount();
+
+    /**
+     * Gets the number of open build contexts per thread that created them.
+     * 
+     * @return The open build contexts in the form {@code <thread>: <count>}, never {@code null}.
+     */
+    String[] getOpenContextsPerThread();
+
+    /**
+     * Gets the number of build states that have been deserialized from disk.
+     * 
+     * @return The number of loaded build states.
+     */
+    long getLoadCount();
+
+    /**
+     * Gets the cumulative time spent deserializing build states.
+     * 
+     * @return The load time in milliseconds.
+     */
+    long getLoadTimeMillis();
+
+    /**
+     * Gets the number of build states that have been serialized to disk.
+     * 
+     * @return The number of saved build states.
+     */
+    long getSaveCount();
+
+    /**
+     * Gets the cumulative time spent serializing build states.
+     * 
+     * @return The save time in milliseconds.
+     */
+    long getSaveTimeMillis();
+
+    /**
+     * Gets the number of path sets that have been scanned for inputs or outputs.
+     * 
+     * @return The number of scanned path sets.
+     */
+    long getScanCount();
+
+    /**
+     * Gets the cumulative time spent scanning path sets, including the detection of changed inputs.
+     * 
+     * @return The scan time in milliseconds.
+     */
+    long getScanTimeMillis();
+
+    /**
+     * Gets the number of build contexts that have been committed.
+     * 
+     * @return The number of committed build contexts.
+     */
+    long getCommitCount();
+
+    /**
+     * Gets the cumulative time spent committing build contexts.
+     * 
+     * @return The commit time in milliseconds.
+     */
+    long getCommitTimeMillis();
+
+    /**
+     * Drops all cached build states from memory, states in use by open build contexts remain unaffected.
+     */
+    void evictBuildStates();
+
+    /**
+     * Drops those cached build states from memory that are no longer referenced or whose state file has been updated
+     * by another process.
+     */
+    void flushBuildStates();
+
+    /**
+     * Resets the cumulative counters and timers.
+     */
+    void resetStatistics();
+
+}
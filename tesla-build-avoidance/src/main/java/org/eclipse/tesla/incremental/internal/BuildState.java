@@ -13,8 +13,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -62,6 +64,23 @@ class BuildState
     // input -> outputs
     private transient Map<File, Collection<File>> outputs;
 
+    // input directory -> (timestamp, entries)
+    private Map<File, DirectoryListing> listings;
+
+    // input directories listed since the last save, the listings of other directories are dropped on save
+    private transient Set<File> touchedListings;
+
+    // input path sets whose directories have been scanned at least once
+    private Collection<PathSet> scannedPaths;
+
+    // input path set -> outcome of last scan
+    private Map<PathSet, ScanSummary> summaries;
+
+    // input path set -> last seen change journal sequence
+    private transient Map<PathSet, Long> journalPositions;
+
+    private transient volatile GitIndexCache gitIndexes;
+
     public BuildState( File stateFile )
     {
         if ( stateFile == null )
@@ -80,6 +99,10 @@ class BuildState
         outputs = new HashMap<File, Collection<File>>( 256 );
         referencedInputs = new HashMap<File, Collection<File>>();
         referencedInputsStates = new HashMap<File, FileState>();
+        listings = new HashMap<File, DirectoryListing>();
+        touchedListings = new HashSet<File>();
+        summaries = new HashMap<PathSet, ScanSummary>();
+        scannedPaths = new HashSet<PathSet>();
     }
 
     public File getStateFile()
@@ -90,31 +113,14 @@ class BuildState
     public static BuildState load( File stateFile )
         throws IOException
     {
+        // capture file stamp before reading to detect concurrent updates of the file via isStale()
+        long timestamp = stateFile.lastModified();
+        long size = stateFile.length();
+
         FileInputStream is = new FileInputStream( stateFile );
         try
         {
-            ObjectInputStream ois = new ObjectInputStream( new BufferedInputStream( is ) );
-            try
-            {
-                BuildState state = (BuildState) ois.readObject();
-                state.stateFile = stateFile;
-                state.timestamp = stateFile.lastModified();
-                state.size = stateFile.length();
-
-                return state;
-            }
-            catch ( ClassNotFoundException e )
-            {
-                throw (IOException) new IOException( "Corrupted build state file" ).initCause( e );
-            }
-            catch ( ClassCastException e )
-            {
-                throw (IOException) new IOException( "Corrupted build state file" ).initCause( e );
-            }
-            finally
-            {
-                ois.close();
-            }
+            return load( stateFile, new BufferedInputStream( is ), timestamp, size );
         }
         finally
         {
@@ -122,11 +128,52 @@ class BuildState
         }
     }
 
+    static BuildState load( File stateFile, InputStream is, long timestamp, long size )
+        throws IOException
+    {
+        ObjectInputStream ois = new ObjectInputStream( is );
+        try
+        {
+            BuildState state = (BuildState) ois.readObject();
+            state.stateFile = stateFile;
+            state.timestamp = timestamp;
+            state.size = size;
+
+            return state;
+        }
+        catch ( ClassNotFoundException e )
+        {
+            throw (IOException) new IOException( "Corrupted build state file" ).initCause( e );
+        }
+        catch ( ClassCastException e )
+        {
+            throw (IOException) new IOException( "Corrupted build state file" ).initCause( e );
+        }
+        finally
+        {
+            ois.close();
+        }
+    }
+
     private void readObject( ObjectInputStream ois )
         throws IOException, ClassNotFoundException
     {
         ois.defaultReadObject();
 
+        if ( listings == null )
+        {
+            listings = new HashMap<File, DirectoryListing>();
+        }
+        touchedListings = new HashSet<File>();
+        if ( summaries == null )
+        {
+            summaries = new HashMap<PathSet, ScanSummary>();
+        }
+        if ( scannedPaths == null )
+        {
+            scannedPaths = new HashSet<PathSet>();
+        }
+
         outputs = new HashMap<File, Collection<File>>( inputs.size() );
 
         for ( Map.Entry<File, Collection<File>> entry : inputs.entrySet() )
@@ -153,17 +200,40 @@ class BuildState
         FileOutputStream fos = new FileOutputStream( stateFile );
         try
         {
-            ObjectOutputStream oos = new ObjectOutputStream( fos );
-            oos.writeObject( this );
-            oos.close();
+            save( fos );
         }
         finally
         {
             fos.close();
         }
 
-        this.timestamp = stateFile.lastModified();
-        this.size = stateFile.length();
+        saved( stateFile.lastModified(), stateFile.length() );
+    }
+
+    synchronized void save( OutputStream os )
+        throws IOException
+    {
+        // a build that skipped scanning altogether, e.g. due to a current scan summary, still relies on the listings
+        if ( !touchedListings.isEmpty() )
+        {
+            listings.keySet().retainAll( touchedListings );
+            touchedListings.clear();
+        }
+
+        ObjectOutputStream oos = new ObjectOutputStream( os );
+        oos.writeObject( this );
+        oos.close();
+    }
+
+    synchronized void saved( long timestamp, long size )
+    {
+        this.timestamp = timestamp;
+        this.size = size;
+    }
+
+    long getSerializedSize()
+    {
+        return size;
     }
 
     boolean isStale()
@@ -217,7 +287,7 @@ class BuildState
 
         if ( input != null )
         {
-            inputStates.put( input, new FileState( input ) );
+            inputStates.put( input, newFileState( input ) );
 
             Collection<File> outputsOfInput = new TreeSet<File>();
             obsoleteOutputs = this.outputs.put( input, outputsOfInput );
@@ -263,7 +333,7 @@ class BuildState
 
             for ( File referencedInput : referencedInputs )
             {
-                referencedInputsStates.put( referencedInput, new FileState( referencedInput ) );
+                referencedInputsStates.put( referencedInput, newFileState( referencedInput ) );
             }
         }
         else
@@ -350,10 +420,23 @@ class BuildState
         return inputStates;
     }
 
-    public synchronized boolean isProcessingRequired( File input )
+    public boolean isProcessingRequired( File input )
+    {
+        return isProcessingRequired( input, input.isDirectory() );
+    }
+
+    /**
+     * Checks whether the specified input needs to be processed, using the given file kind instead of querying the file
+     * system for it.
+     * 
+     * @param input The input file/directory to check, must not be {@code null}.
+     * @param directory {@code true} if the input is known to be a directory, {@code false} if it is a file.
+     * @return {@code true} if the input needs to be processed, {@code false} otherwise.
+     */
+    public synchronized boolean isProcessingRequired( File input, boolean directory )
     {
         FileState previousState = inputStates.get( input );
-        if ( isChangedOrDeleted( input, previousState ) )
+        if ( isChangedOrDeleted( input, directory, previousState, inputStates ) )
         {
             return true;
         }
@@ -371,6 +454,90 @@ class BuildState
         return false;
     }
 
+    void setGitIndexes( GitIndexCache gitIndexes )
+    {
+        this.gitIndexes = gitIndexes;
+    }
+
+    private FileState newFileState( File file )
+    {
+        byte[] contentId = ( gitIndexes != null && file.isFile() ) ? gitIndexes.getBlobId( file ) : null;
+        return new FileState( file, contentId );
+    }
+
+    /**
+     * Lists the specified input directory, reusing the listing from the previous build if the directory has not been
+     * modified since then.
+     * 
+     * @param directory The input directory to list, must not be {@code null}.
+     * @return The directory contents or {@code null} if the file does not denote a readable directory.
+     */
+    public DirectoryListing listDirectory( File directory )
+    {
+        DirectoryListing listing;
+        synchronized ( this )
+        {
+            touchedListings.add( directory );
+            listing = listings.get( directory );
+        }
+
+        if ( listing != null && listing.isCurrent( directory ) )
+        {
+            return listing;
+        }
+
+        listing = DirectoryListing.read( directory );
+
+        synchronized ( this )
+        {
+            if ( listing != null )
+            {
+                listings.put( directory, listing );
+            }
+            else
+            {
+                listings.remove( directory );
+            }
+        }
+
+        return listing;
+    }
+
+    synchronized Collection<File> getListedDirectories()
+    {
+        return new ArrayList<File>( listings.keySet() );
+    }
+
+    public synchronized boolean isScanned( PathSet paths )
+    {
+        return scannedPaths.contains( paths );
+    }
+
+    public synchronized void setScanned( PathSet paths )
+    {
+        if ( !scannedPaths.contains( paths ) )
+        {
+            scannedPaths.add( new PathSet( paths ) );
+        }
+    }
+
+    public synchronized ScanSummary getScanSummary( PathSet paths )
+    {
+        return summaries.get( paths );
+    }
+
+    public synchronized void setScanSummary( PathSet paths, ScanSummary summary )
+    {
+        if ( summary != null )
+        {
+            summaries.put( new PathSet( paths ), summary );
+        }
+        else
+        {
+            summaries.remove( paths );
+        }
+    }
+
     private boolean isReferencedInputChangedOrDeleted( File input )
     {
         Collection<File> referencedInputs = this.referencedInputs.get( input );
@@ -381,7 +548,8 @@ class BuildState
 
         for ( File referencedInput : referencedInputs )
         {
-            if ( isChangedOrDeleted( referencedInput, referencedInputsStates.get( referencedInput ) ) )
+            if ( isChangedOrDeleted( referencedInput, referencedInput.isDirectory(),
+                                     referencedInputsStates.get( referencedInput ), referencedInputsStates ) )
             {
                 return true;
             }
@@ -390,31 +558,46 @@ class BuildState
         return false;
     }
 
-    private boolean isChangedOrDeleted( File file, FileState fileState )
+    private boolean isChangedOrDeleted( File file, boolean directory, FileState fileState,
+                                        Map<File, FileState> fileStates )
     {
         if ( fileState == null )
         {
             return true;
         }
-        if ( fileState.isDirectory() != file.isDirectory() )
+        if ( fileState.isDirectory() != directory )
         {
             return true;
         }
         if ( !fileState.isDirectory() )
         {
-            if ( fileState.getTimestamp() != file.lastModified() )
-            {
-                return true;
-            }
-            if ( fileState.getSize() != file.length() )
+            if ( fileState.getTimestamp() != file.lastModified() || fileState.getSize() != file.length() )
             {
-                return true;
+                return !isContentUnchanged( file, fileState, fileStates );
             }
         }
 
         return false;
     }
 
+    private boolean isContentUnchanged( File file, FileState fileState, Map<File, FileState> fileStates )
+    {
+        if ( fileState.getContentId() == null || gitIndexes == null )
+        {
+            return false;
+        }
+
+        byte[] contentId = gitIndexes.getBlobId( file );
+        if ( !Arrays.equals( fileState.getContentId(), contentId ) )
+        {
+            return false;
+        }
+
+        // only the timestamp changed, e.g. due to a branch switch, remember the new stamp to spare the next check
+        fileStates.put( file, new FileState( file, contentId ) );
+        return true;
+    }
+
     private boolean isOutputMissing( File input )
     {
         Collection<File> outputsOfInput = outputs.get( input );
@@ -436,11 +619,11 @@ class BuildState
         return messages.remove( input );
     }
 
-    public synchronized int getErrors( Collection<PathSet> pathSets )
+    public synchronized int getErrors( Collection<PathSet> pathSets, SelectorCache selectors )
     {
         int num = 0;
 
-        for ( File input : getSelectedInputs( pathSets, messages.keySet(), referencedInputs ) )
+        for ( File input : getSelectedInputs( pathSets, messages.keySet(), referencedInputs, selectors ) )
         {
             Collection<Message> inputMessages = messages.get( input );
             if ( inputMessages != null )
@@ -459,11 +642,12 @@ class BuildState
     }
 
     public synchronized Map<File, Collection<Message>> getSelectedMessages( Collection<PathSet> pathSets,
-                                                                            Map<File, Collection<Message>> messages )
+                                                                            Map<File, Collection<Message>> messages,
+                                                                            SelectorCache selectors )
     {
         Map<File, Collection<Message>> selected = new HashMap<File, Collection<Message>>();
 
-        for ( File input : getSelectedInputs( pathSets, messages.keySet(), referencedInputs ) )
+        for ( File input : getSelectedInputs( pathSets, messages.keySet(), referencedInputs, selectors ) )
         {
             Collection<Message> inputMessages = messages.get( input );
             if ( inputMessages != null )
@@ -476,7 +660,7 @@ class BuildState
     }
 
     private static Set<File> getSelectedInputs( Collection<PathSet> pathSets, Collection<File> inputs,
-                                                Map<File, Collection<File>> referenced )
+                                                Map<File, Collection<File>> referenced, SelectorCache cache )
     {
         Set<File> selected = new HashSet<File>();
 
@@ -485,7 +669,8 @@ class BuildState
             Map<PathSet, Selector> selectors = new LinkedHashMap<PathSet, Selector>();
             for ( PathSet pathSet : pathSets )
             {
-                selectors.put( pathSet, new GlobSelector( pathSet ) );
+                selectors.put( pathSet, ( cache != null ) ? cache.getSelector( pathSet )
+                                : SelectorCache.newSelector( pathSet ) );
             }
 
             for ( File input : inputs )
@@ -541,6 +726,26 @@ class BuildState
         referencedInputsStates.keySet().retainAll( allReferencedInputs );
     }
 
+    public synchronized Collection<File> getReferencingInputs()
+    {
+        return new ArrayList<File>( referencedInputs.keySet() );
+    }
+
+    public synchronized long getJournalPosition( PathSet paths )
+    {
+        Long position = ( journalPositions != null ) ? journalPositions.get( paths ) : null;
+        return ( position != null ) ? position.longValue() : 0;
+    }
+
+    public synchronized void setJournalPosition( PathSet paths, long position )
+    {
+        if ( journalPositions == null )
+        {
+            journalPositions = new HashMap<PathSet, Long>();
+        }
+        journalPositions.put( new PathSet( paths ), Long.valueOf( position ) );
+    }
+
     /**
      * Returns old uncleared messages.
      */
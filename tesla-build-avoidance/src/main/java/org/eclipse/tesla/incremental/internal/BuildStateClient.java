@@ -0,0 +1,304 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Obtains and stores build states via a {@link BuildStateServer} running on the local machine. If the service cannot be
+ * reached or fails to authenticate itself, the client is permanently disabled and its callers fall back to direct
+ * access of the state files. A request that the service refuses or fails to handle, e.g. for a state file outside of
+ * its root directories, falls back to direct access of just that state file.
+ */
+class BuildStateClient
+{
+
+    private static final int TIMEOUT = 10 * 1000;
+
+    private final Logger log;
+
+    private final int port;
+
+    private final File tokenFile;
+
+    private volatile boolean available = true;
+
+    /**
+     * Creates a new client for the specified server.
+     * 
+     * @param log The logger to use, may be {@code null}.
+     * @param port The loopback port the server listens on.
+     * @param tokenFile The token file written by the server, must not be {@code null}.
+     */
+    public BuildStateClient( Logger log, int port, File tokenFile )
+    {
+        if ( port <= 0 )
+        {
+            throw new IllegalArgumentException( "server port not specified" );
+        }
+        if ( tokenFile == null )
+        {
+            throw new IllegalArgumentException( "token file not specified" );
+        }
+        this.log = ( log != null ) ? log : NullLogger.INSTANCE;
+        this.port = port;
+        this.tokenFile = tokenFile;
+    }
+
+    public int getPort()
+    {
+        return port;
+    }
+
+    public boolean isAvailable()
+    {
+        return available;
+    }
+
+    /**
+     * Reads the specified build state from the server.
+     * 
+     * @param stateFile The state file to read, must not be {@code null}.
+     * @return The build state or {@code null} if the server is not available or could not serve the state.
+     * @throws FileNotFoundException If the state file does not exist.
+     */
+    public BuildState read( File stateFile )
+        throws FileNotFoundException
+    {
+        Connection connection = connect();
+        if ( connection != null )
+        {
+            try
+            {
+                DataOutputStream out = connection.out;
+                DataInputStream in = connection.in;
+
+                out.writeByte( BuildStateServer.GET );
+                out.writeUTF( stateFile.getAbsolutePath() );
+                out.flush();
+
+                byte status = in.readByte();
+                if ( status == BuildStateServer.NOT_FOUND )
+                {
+                    throw new FileNotFoundException( stateFile.getAbsolutePath() );
+                }
+                checkStatus( status, in );
+                long timestamp = in.readLong();
+                long size = in.readLong();
+                int length = in.readInt();
+                if ( length < 0 || length > BuildStateServer.MAX_STATE_BYTES )
+                {
+                    throw new ServerException( "Invalid state length " + length );
+                }
+                byte[] bytes = new byte[length];
+                in.readFully( bytes );
+
+                return BuildState.load( stateFile, new ByteArrayInputStream( bytes ), timestamp, size );
+            }
+            catch ( FileNotFoundException e )
+            {
+                throw e;
+            }
+            catch ( IOException e )
+            {
+                failed( stateFile, e );
+            }
+            finally
+            {
+                connection.close();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Writes the specified build state through the server.
+     * 
+     * @param buildState The build state to write, must not be {@code null}.
+     * @return {@code true} if the server wrote the state, {@code false} if the caller needs to write it itself.
+     * @throws IOException If the state could not be serialized.
+     */
+    public boolean write( BuildState buildState )
+        throws IOException
+    {
+        if ( available )
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( 1024 * 4 );
+            buildState.save( bytes );
+
+            Connection connection = connect();
+            if ( connection != null )
+            {
+                try
+                {
+                    DataOutputStream out = connection.out;
+                    DataInputStream in = connection.in;
+
+                    out.writeByte( BuildStateServer.PUT );
+                    out.writeUTF( buildState.getStateFile().getAbsolutePath() );
+                    out.writeInt( bytes.size() );
+                    bytes.writeTo( out );
+                    out.flush();
+
+                    checkStatus( in.readByte(), in );
+                    buildState.saved( in.readLong(), in.readLong() );
+                    return true;
+                }
+                catch ( IOException e )
+                {
+                    failed( buildState.getStateFile(), e );
+                }
+                finally
+                {
+                    connection.close();
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Opens an authenticated connection to the server. A server that cannot be reached or fails to authenticate itself
+     * is not asked again.
+     * 
+     * @return The connection or {@code null} if the server is not available.
+     */
+    private Connection connect()
+    {
+        if ( !available )
+        {
+            return null;
+        }
+
+        Socket socket = null;
+        try
+        {
+            socket = new Socket( InetAddress.getByName( "127.0.0.1" ), port );
+            socket.setSoTimeout( TIMEOUT );
+            Connection connection = new Connection( socket );
+            authenticate( connection.in, connection.out );
+            return connection;
+        }
+        catch ( IOException e )
+        {
+            if ( socket != null )
+            {
+                close( socket );
+            }
+            available = false;
+            log.warn( "Could not access build state server on port " + port + ", falling back to direct file access",
+                      log.isDebugEnabled() ? e : null );
+            return null;
+        }
+    }
+
+    private void authenticate( DataInputStream in, DataOutputStream out )
+        throws IOException
+    {
+        // the token is read for each connection since a restarted server writes a new one
+        byte[] token = BuildStateServer.readToken( tokenFile );
+
+        byte[] clientNonce = BuildStateServer.newNonce();
+        out.write( clientNonce );
+        out.flush();
+
+        byte[] serverNonce = new byte[BuildStateServer.NONCE_LENGTH];
+        in.readFully( serverNonce );
+        byte[] proof = new byte[BuildStateServer.MAC_LENGTH];
+        in.readFully( proof );
+        if ( !BuildStateServer.verify( token, BuildStateServer.SERVER, clientNonce, serverNonce, proof ) )
+        {
+            throw new ServerException( "Build state server on port " + port + " failed to authenticate" );
+        }
+
+        out.write( BuildStateServer.prove( token, BuildStateServer.CLIENT, serverNonce, clientNonce ) );
+    }
+
+    private void checkStatus( byte status, DataInputStream in )
+        throws IOException
+    {
+        if ( status == BuildStateServer.ERROR )
+        {
+            throw new ServerException( in.readUTF() );
+        }
+        else if ( status != BuildStateServer.OK )
+        {
+            throw new ServerException( "Unexpected response " + status );
+        }
+    }
+
+    private void failed( File stateFile, IOException e )
+    {
+        // the server refused or failed this one request, e.g. for a state file outside of its roots
+        log.warn( "Build state server on port " + port + " could not handle " + stateFile
+            + ", falling back to direct file access: " + e.getMessage(), log.isDebugEnabled() ? e : null );
+    }
+
+    static void close( Socket socket )
+    {
+        try
+        {
+            socket.close();
+        }
+        catch ( IOException e )
+        {
+            // irrelevant
+        }
+    }
+
+    static final class Connection
+    {
+
+        final Socket socket;
+
+        final DataInputStream in;
+
+        final DataOutputStream out;
+
+        Connection( Socket socket )
+            throws IOException
+        {
+            this.socket = socket;
+            this.in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            this.out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+        }
+
+        void close()
+        {
+            BuildStateClient.close( socket );
+        }
+
+    }
+
+    static class ServerException
+        extends IOException
+    {
+
+        private static final long serialVersionUID = 8286587453212618227L;
+
+        ServerException( String message )
+        {
+            super( message );
+        }
+
+    }
+
+}
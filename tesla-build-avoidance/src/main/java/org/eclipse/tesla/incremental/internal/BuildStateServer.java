@@ -0,0 +1,620 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A local service that keeps serialized build states in memory and serves them to short-lived build processes that
+ * share a workspace, sparing each of them from reading the state files again. The service listens on the loopback
+ * interface only and refuses access to files that do not look like build state files or that reside outside of the
+ * configured root directories. The state files on disk remain the authoritative copy, i.e. states are written through
+ * and cached states are revalidated against the timestamp and size of their file.<br>
+ * <br>
+ * On startup, the service writes a random secret to a token file that only the current user can read. Each connection
+ * begins with a challenge-response handshake in which both the client and the server prove knowledge of the secret,
+ * such that other users on the machine can neither access the served states nor impersonate the service to feed
+ * clients forged states.<br>
+ * <br>
+ * The service is started from the command line with the port to listen on, the token file to create and the root
+ * directories of the served state files, e.g. the directory of a CI workspace:
+ * 
+ * <pre>
+ * java -cp tesla-build-avoidance.jar org.eclipse.tesla.incremental.internal.BuildStateServer \
+ *     4711 /home/ci/.tesla/server.token /ci/workspace
+ * </pre>
+ * 
+ * Build processes use the service once the system property {@link DefaultBuildContextManager#STATE_SERVER_PROPERTY}
+ * is set to the port and the token file, e.g. by adding
+ * {@code -Dtesla.incremental.stateServer=4711,/home/ci/.tesla/server.token} to {@code MAVEN_OPTS}.
+ * 
+ * @see SharedStateBuildContextManager
+ */
+public class BuildStateServer
+    implements Runnable
+{
+
+    static final byte GET = 1;
+
+    static final byte PUT = 2;
+
+    static final byte OK = 0;
+
+    static final byte NOT_FOUND = 1;
+
+    static final byte ERROR = 2;
+
+    static final byte CLIENT = 'C';
+
+    static final byte SERVER = 'S';
+
+    static final int NONCE_LENGTH = 16;
+
+    static final int TOKEN_LENGTH = 32;
+
+    static final int MAC_LENGTH = 32;
+
+    /**
+     * The maximum length of a single serialized build state accepted by the server and the clients.
+     */
+    static final int MAX_STATE_BYTES = 256 * 1024 * 1024;
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final long DEFAULT_MAX_BYTES = 256 * 1024 * 1024;
+
+    private static final int TIMEOUT = 10 * 1000;
+
+    private static final int MAX_WORKERS = 8;
+
+    private static final int MAX_QUEUED = 64;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Logger log;
+
+    private final ServerSocket serverSocket;
+
+    private final byte[] token;
+
+    private final Collection<File> roots;
+
+    private final long maxBytes;
+
+    private final Map<File, CachedState> states;
+
+    private long cachedBytes;
+
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * Creates a new service listening on the specified loopback port.
+     * 
+     * @param log The logger to use, may be {@code null}.
+     * @param port The port to listen on, may be {@code 0} to pick a free port.
+     * @param maxBytes The maximum number of bytes of serialized states to keep in memory, non-positive to use a
+     *            default.
+     * @param roots The directories in which the served state files must reside, must not be {@code null} or empty.
+     * @param tokenFile The file to write the secret to that clients need to connect, must not be {@code null}. The file
+     *            should reside in a directory that only the current user can access.
+     * @throws IOException If the token file could not be written or the server socket could not be opened.
+     */
+    public BuildStateServer( Logger log, int port, long maxBytes, Collection<File> roots, File tokenFile )
+        throws IOException
+    {
+        if ( roots == null || roots.isEmpty() )
+        {
+            throw new IllegalArgumentException( "root directories not specified" );
+        }
+        if ( tokenFile == null )
+        {
+            throw new IllegalArgumentException( "token file not specified" );
+        }
+        this.log = ( log != null ) ? log : NullLogger.INSTANCE;
+        this.roots = new ArrayList<File>();
+        for ( File root : roots )
+        {
+            this.roots.add( FileUtils.normalize( root ) );
+        }
+        this.maxBytes = ( maxBytes > 0 ) ? maxBytes : DEFAULT_MAX_BYTES;
+        this.states = new LinkedHashMap<File, CachedState>( 64, 0.75f, true );
+        this.token = writeToken( tokenFile );
+        this.serverSocket = new ServerSocket( port, 50, InetAddress.getByName( "127.0.0.1" ) );
+        this.workers =
+            new ThreadPoolExecutor( MAX_WORKERS, MAX_WORKERS, 60, TimeUnit.SECONDS,
+                                    new ArrayBlockingQueue<Runnable>( MAX_QUEUED ), new ThreadFactory()
+                                    {
+                                        public Thread newThread( Runnable r )
+                                        {
+                                            Thread thread = new Thread( r, "build-state-server-worker" );
+                                            thread.setDaemon( true );
+                                            return thread;
+                                        }
+                                    } );
+    }
+
+    private byte[] writeToken( File tokenFile )
+        throws IOException
+    {
+        byte[] token = new byte[TOKEN_LENGTH];
+        RANDOM.nextBytes( token );
+
+        tokenFile = tokenFile.getAbsoluteFile();
+        tokenFile.getParentFile().mkdirs();
+
+        // restrict access before the secret gets written, the random name keeps others from opening the file earlier
+        File tmpFile = File.createTempFile( "token", ".tmp", tokenFile.getParentFile() );
+        try
+        {
+            if ( !restrictToOwner( tmpFile ) )
+            {
+                log.warn( "Could not restrict access to " + tokenFile
+                    + " to the current user, make sure its directory is not accessible to others" );
+            }
+
+            FileOutputStream fos = new FileOutputStream( tmpFile );
+            try
+            {
+                fos.write( token );
+            }
+            finally
+            {
+                fos.close();
+            }
+
+            tokenFile.delete();
+            if ( !tmpFile.renameTo( tokenFile ) )
+            {
+                throw new IOException( "Could not write token file " + tokenFile );
+            }
+        }
+        finally
+        {
+            tmpFile.delete();
+        }
+
+        return token;
+    }
+
+    private static boolean restrictToOwner( File file )
+    {
+        // the permission setters are only available as of Java 6
+        try
+        {
+            Method setReadable = File.class.getMethod( "setReadable", boolean.class, boolean.class );
+            Method setWritable = File.class.getMethod( "setWritable", boolean.class, boolean.class );
+            return Boolean.TRUE.equals( setReadable.invoke( file, Boolean.FALSE, Boolean.FALSE ) )
+                && Boolean.TRUE.equals( setReadable.invoke( file, Boolean.TRUE, Boolean.TRUE ) )
+                && Boolean.TRUE.equals( setWritable.invoke( file, Boolean.FALSE, Boolean.FALSE ) )
+                && Boolean.TRUE.equals( setWritable.invoke( file, Boolean.TRUE, Boolean.TRUE ) );
+        }
+        catch ( Exception e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the secret written by a server.
+     * 
+     * @param tokenFile The token file of the server, must not be {@code null}.
+     * @return The secret, never {@code null}.
+     * @throws IOException If the token file could not be read or has an unexpected length.
+     */
+    static byte[] readToken( File tokenFile )
+        throws IOException
+    {
+        if ( tokenFile.length() != TOKEN_LENGTH )
+        {
+            throw new IOException( "Invalid token file " + tokenFile );
+        }
+        byte[] token = new byte[TOKEN_LENGTH];
+        DataInputStream in = new DataInputStream( new FileInputStream( tokenFile ) );
+        try
+        {
+            in.readFully( token );
+        }
+        finally
+        {
+            in.close();
+        }
+        return token;
+    }
+
+    static byte[] newNonce()
+    {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes( nonce );
+        return nonce;
+    }
+
+    /**
+     * Computes the proof of a party that it knows the secret, bound to the nonces of the current connection.
+     * 
+     * @param token The secret, must not be {@code null}.
+     * @param role The party giving the proof, either {@link #CLIENT} or {@link #SERVER}.
+     * @param nonce1 The nonce of the other party, must not be {@code null}.
+     * @param nonce2 The nonce of the proving party, must not be {@code null}.
+     * @return The proof, never {@code null}.
+     */
+    static byte[] prove( byte[] token, byte role, byte[] nonce1, byte[] nonce2 )
+    {
+        try
+        {
+            Mac mac = Mac.getInstance( MAC_ALGORITHM );
+            mac.init( new SecretKeySpec( token, MAC_ALGORITHM ) );
+            mac.update( role );
+            mac.update( nonce1 );
+            mac.update( nonce2 );
+            return mac.doFinal();
+        }
+        catch ( GeneralSecurityException e )
+        {
+            throw new IllegalStateException( MAC_ALGORITHM + " not available", e );
+        }
+    }
+
+    static boolean verify( byte[] token, byte role, byte[] nonce1, byte[] nonce2, byte[] proof )
+    {
+        return MessageDigest.isEqual( prove( token, role, nonce1, nonce2 ), proof );
+    }
+
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    public void run()
+    {
+        while ( !serverSocket.isClosed() )
+        {
+            final Socket socket;
+            try
+            {
+                socket = serverSocket.accept();
+            }
+            catch ( IOException e )
+            {
+                // socket closed
+                break;
+            }
+            try
+            {
+                workers.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        handle( socket );
+                    }
+                } );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                log.debug( "Too many pending requests, dropping connection from " + socket.getRemoteSocketAddress() );
+                close( socket );
+            }
+        }
+        workers.shutdown();
+    }
+
+    public void close()
+        throws IOException
+    {
+        serverSocket.close();
+    }
+
+    private void close( Socket socket )
+    {
+        try
+        {
+            socket.close();
+        }
+        catch ( IOException e )
+        {
+            // irrelevant
+        }
+    }
+
+    private void handle( Socket socket )
+    {
+        try
+        {
+            try
+            {
+                socket.setSoTimeout( TIMEOUT );
+
+                DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+                DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+
+                byte[] clientNonce = new byte[NONCE_LENGTH];
+                in.readFully( clientNonce );
+                byte[] serverNonce = newNonce();
+                out.write( serverNonce );
+                out.write( prove( token, SERVER, clientNonce, serverNonce ) );
+                out.flush();
+
+                byte[] proof = new byte[MAC_LENGTH];
+                in.readFully( proof );
+                if ( !verify( token, CLIENT, serverNonce, clientNonce, proof ) )
+                {
+                    log.warn( "Refused unauthenticated connection from " + socket.getRemoteSocketAddress() );
+                    out.writeByte( ERROR );
+                    out.writeUTF( "Access denied" );
+                    out.flush();
+                    return;
+                }
+
+                byte op = in.readByte();
+                File stateFile = new File( in.readUTF() );
+
+                if ( !isAllowed( stateFile ) )
+                {
+                    out.writeByte( ERROR );
+                    out.writeUTF( "Access denied to " + stateFile );
+                }
+                else if ( op == GET )
+                {
+                    CachedState state;
+                    try
+                    {
+                        state = get( stateFile );
+                    }
+                    catch ( IOException e )
+                    {
+                        // report the failure of this request instead of dropping the connection
+                        out.writeByte( ERROR );
+                        out.writeUTF( String.valueOf( e.getMessage() ) );
+                        out.flush();
+                        return;
+                    }
+                    if ( state == null )
+                    {
+                        out.writeByte( NOT_FOUND );
+                    }
+                    else
+                    {
+                        out.writeByte( OK );
+                        out.writeLong( state.timestamp );
+                        out.writeLong( state.size );
+                        out.writeInt( state.bytes.length );
+                        out.write( state.bytes );
+                    }
+                }
+                else if ( op == PUT )
+                {
+                    int length = in.readInt();
+                    if ( length < 0 || length > Math.min( MAX_STATE_BYTES, maxBytes ) )
+                    {
+                        out.writeByte( ERROR );
+                        out.writeUTF( "Invalid state length " + length );
+                    }
+                    else
+                    {
+                        byte[] bytes = new byte[length];
+                        in.readFully( bytes );
+                        CachedState state;
+                        try
+                        {
+                            state = put( stateFile, bytes );
+                        }
+                        catch ( IOException e )
+                        {
+                            out.writeByte( ERROR );
+                            out.writeUTF( String.valueOf( e.getMessage() ) );
+                            out.flush();
+                            return;
+                        }
+                        out.writeByte( OK );
+                        out.writeLong( state.timestamp );
+                        out.writeLong( state.size );
+                    }
+                }
+                else
+                {
+                    out.writeByte( ERROR );
+                    out.writeUTF( "Unknown operation " + op );
+                }
+
+                out.flush();
+            }
+            finally
+            {
+                socket.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // client went away or state file inaccessible, the client falls back to direct file access
+            log.debug( "Could not serve build state request from " + socket.getRemoteSocketAddress(), e );
+        }
+    }
+
+    private boolean isAllowed( File stateFile )
+    {
+        if ( !stateFile.isAbsolute() || !stateFile.getName().matches( "[0-9a-fA-F]+-[0-9a-fA-F]+\\.ser" ) )
+        {
+            return false;
+        }
+        File file = FileUtils.normalize( stateFile );
+        for ( File root : roots )
+        {
+            if ( FileUtils.relativize( file, root ) != null )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CachedState get( File stateFile )
+        throws IOException
+    {
+        synchronized ( states )
+        {
+            long timestamp = stateFile.lastModified();
+            long size = stateFile.length();
+
+            CachedState state = states.get( stateFile );
+            if ( state != null && state.timestamp == timestamp && state.size == size )
+            {
+                return state;
+            }
+
+            if ( !stateFile.isFile() )
+            {
+                remove( stateFile );
+                return null;
+            }
+
+            byte[] bytes;
+            RandomAccessFile raf = new RandomAccessFile( stateFile, "r" );
+            try
+            {
+                if ( raf.length() > Math.min( MAX_STATE_BYTES, maxBytes ) )
+                {
+                    throw new IOException( "State file " + stateFile + " too large to serve" );
+                }
+                bytes = new byte[(int) raf.length()];
+                raf.readFully( bytes );
+            }
+            finally
+            {
+                raf.close();
+            }
+
+            return cache( stateFile, new CachedState( bytes, timestamp, size ) );
+        }
+    }
+
+    private CachedState put( File stateFile, byte[] bytes )
+        throws IOException
+    {
+        synchronized ( states )
+        {
+            stateFile.getParentFile().mkdirs();
+
+            FileOutputStream fos = new FileOutputStream( stateFile );
+            try
+            {
+                fos.write( bytes );
+            }
+            finally
+            {
+                fos.close();
+            }
+
+            return cache( stateFile, new CachedState( bytes, stateFile.lastModified(), stateFile.length() ) );
+        }
+    }
+
+    private CachedState cache( File stateFile, CachedState state )
+    {
+        remove( stateFile );
+        states.put( stateFile, state );
+        cachedBytes += state.bytes.length;
+
+        for ( Iterator<CachedState> it = states.values().iterator(); cachedBytes > maxBytes && it.hasNext(); )
+        {
+            CachedState eldest = it.next();
+            if ( eldest != state )
+            {
+                cachedBytes -= eldest.bytes.length;
+                it.remove();
+            }
+        }
+
+        return state;
+    }
+
+    private void remove( File stateFile )
+    {
+        CachedState state = states.remove( stateFile );
+        if ( state != null )
+        {
+            cachedBytes -= state.bytes.length;
+        }
+    }
+
+    static final class CachedState
+    {
+
+        final byte[] bytes;
+
+        final long timestamp;
+
+        final long size;
+
+        CachedState( byte[] bytes, long timestamp, long size )
+        {
+            this.bytes = bytes;
+            this.timestamp = timestamp;
+            this.size = size;
+        }
+
+    }
+
+    /**
+     * Starts the service from the command line. Messages are logged via {@code java.util.logging}.
+     * 
+     * @param args The port to listen on and the token file to create, followed by one or more root directories of the
+     *            served state files.
+     * @throws IOException If the token file could not be written or the server socket could not be opened.
+     */
+    public static void main( String[] args )
+        throws IOException
+    {
+        Logger log = new JdkLogger( BuildStateServer.class.getName() );
+
+        if ( args.length < 3 )
+        {
+            log.error( "Usage: " + BuildStateServer.class.getName() + " <port> <token file> <root directory>..." );
+            System.exit( 1 );
+        }
+
+        Collection<File> roots = new ArrayList<File>();
+        for ( int i = 2; i < args.length; i++ )
+        {
+            roots.add( new File( args[i] ).getAbsoluteFile() );
+        }
+
+        BuildStateServer server =
+            new BuildStateServer( log, Integer.parseInt( args[0] ), 0, roots, new File( args[1] ).getAbsoluteFile() );
+        log.debug( "Serving build states from " + roots + " on port " + server.getPort() );
+        server.run();
+    }
+
+}
@@ -0,0 +1,308 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the paths below a base directory that got added, modified or deleted. Only the paths matched by the selector
+ * of the journal are tracked and excluded subtrees are not visited at all. The journal is updated by periodic calls to
+ * {@link #poll()} which compare the current state of the selected paths against a snapshot taken by the previous
+ * poll. Each poll that finds changes advances the journal sequence, consumers remember the sequence they have
+ * seen last and query the changes since then. If too many changes accumulate, the journal drops them and consumers
+ * behind that point need to scan the directory tree themselves.
+ */
+class ChangeJournal
+{
+
+    private static final int MAX_CHANGES = 64 * 1024;
+
+    private static final Selector ALL = new Selector()
+    {
+        public boolean isSelected( String pathname )
+        {
+            return true;
+        }
+
+        public boolean isAncestorOfPotentiallySelected( String pathname )
+        {
+            return true;
+        }
+
+        public boolean isSelected( String[] segments, int count )
+        {
+            return true;
+        }
+
+        public boolean isAncestorOfPotentiallySelected( String[] segments, int count )
+        {
+            return true;
+        }
+
+        public Object getInitialState()
+        {
+            return Boolean.TRUE;
+        }
+
+        public Object descend( Object state, String name )
+        {
+            return state;
+        }
+
+        public boolean isSelected( Object state, String name )
+        {
+            return true;
+        }
+
+        public boolean isAncestorOfPotentiallySelected( Object state )
+        {
+            return true;
+        }
+
+        public String[][] getLiteralPaths()
+        {
+            return null;
+        }
+
+        public String[][] getRoots()
+        {
+            return null;
+        }
+    };
+
+    private final File basedir;
+
+    private final Selector selector;
+
+    private final SymlinkPolicy symlinks;
+
+    // path -> (timestamp, size) as of last poll
+    private Map<String, FileState> snapshot;
+
+    private final Map<File, DirectoryListing> listings;
+
+    // path -> sequence of last poll that detected a change
+    private final Map<String, Long> changes;
+
+    private long sequence;
+
+    private long overflowSequence;
+
+    // time of the last poll
+    private volatile long lastPoll;
+
+    // time of the last use by a build
+    private volatile long lastAccess;
+
+    public ChangeJournal( File basedir )
+    {
+        this( basedir, null, null );
+    }
+
+    /**
+     * Creates a new journal for the specified directory tree.
+     * 
+     * @param basedir The base directory of the tree, must not be {@code null}.
+     * @param selector The selector for the paths to track, may be {@code null} to track all paths.
+     * @param symlinks How to deal with symbolic links to directories, should match the scans of the journal consumers,
+     *            may be {@code null} to follow them without checks.
+     */
+    public ChangeJournal( File basedir, Selector selector, SymlinkPolicy symlinks )
+    {
+        if ( basedir == null )
+        {
+            throw new IllegalArgumentException( "base directory not specified" );
+        }
+        this.basedir = basedir;
+        this.selector = ( selector != null ) ? selector : ALL;
+        this.symlinks = symlinks;
+        this.lastAccess = System.currentTimeMillis();
+        this.listings = new HashMap<File, DirectoryListing>();
+        this.changes = new HashMap<String, Long>();
+    }
+
+    public File getBasedir()
+    {
+        return basedir;
+    }
+
+    public long getLastPoll()
+    {
+        return lastPoll;
+    }
+
+    public long getLastAccess()
+    {
+        return lastAccess;
+    }
+
+    /**
+     * Marks the journal as used by a build.
+     */
+    public void touch()
+    {
+        lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the sequence of the last poll. A non-positive value indicates that the initial snapshot has not been taken
+     * yet and the journal cannot be used.
+     * 
+     * @return The sequence of the last poll.
+     */
+    public synchronized long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Gets the paths that changed after the specified sequence.
+     * 
+     * @param since The last sequence seen by the caller.
+     * @return The changes or {@code null} if the journal cannot tell.
+     */
+    public synchronized Delta getChangesSince( long since )
+    {
+        if ( since <= 0 || since < overflowSequence || since > sequence )
+        {
+            return null;
+        }
+
+        Collection<String> paths = new ArrayList<String>();
+        for ( Map.Entry<String, Long> entry : changes.entrySet() )
+        {
+            if ( entry.getValue().longValue() > since )
+            {
+                paths.add( entry.getKey() );
+            }
+        }
+
+        return new Delta( sequence, paths );
+    }
+
+    /**
+     * Compares the current state of the selected paths against the snapshot of the previous poll.
+     * 
+     * @return {@code true} if any changes were detected, {@code false} otherwise.
+     */
+    public synchronized boolean poll()
+    {
+        final Map<String, FileState> current =
+            new HashMap<String, FileState>( ( snapshot != null ) ? snapshot.size() * 4 / 3 + 16 : 256 );
+
+        DirectoryScan scan = new DirectoryScan( basedir, selector, true, true, null, symlinks )
+        {
+            @Override
+            protected DirectoryListing list( File dir )
+            {
+                DirectoryListing listing = listings.get( dir );
+                if ( listing == null || !listing.isCurrent( dir ) )
+                {
+                    listing = DirectoryListing.read( dir );
+                    if ( listing != null )
+                    {
+                        listings.put( dir, listing );
+                    }
+                    else
+                    {
+                        listings.remove( dir );
+                    }
+                }
+                return listing;
+            }
+
+            @Override
+            protected void onFile( String pathname, File file )
+            {
+                current.put( pathname, new FileState( file.lastModified(), file.length(), false ) );
+            }
+
+            @Override
+            protected void onDirectory( String pathname, File file )
+            {
+                current.put( pathname, new FileState( 0, 0, true ) );
+            }
+        };
+        scan.run();
+
+        lastPoll = System.currentTimeMillis();
+
+        if ( snapshot == null )
+        {
+            snapshot = current;
+            sequence = 1;
+            return false;
+        }
+
+        Long next = Long.valueOf( sequence + 1 );
+        boolean changed = false;
+
+        for ( Map.Entry<String, FileState> entry : current.entrySet() )
+        {
+            if ( !entry.getValue().equals( snapshot.remove( entry.getKey() ) ) )
+            {
+                changes.put( entry.getKey(), next );
+                changed = true;
+            }
+        }
+        for ( String deleted : snapshot.keySet() )
+        {
+            changes.put( deleted, next );
+            listings.remove( new File( basedir, deleted ) );
+            changed = true;
+        }
+
+        snapshot = current;
+
+        if ( changed )
+        {
+            sequence = next.longValue();
+            if ( changes.size() > MAX_CHANGES )
+            {
+                changes.clear();
+                overflowSequence = sequence;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * The paths that changed between two sequences of the journal.
+     */
+    static final class Delta
+    {
+
+        private final long sequence;
+
+        private final Collection<String> paths;
+
+        Delta( long sequence, Collection<String> paths )
+        {
+            this.sequence = sequence;
+            this.paths = paths;
+        }
+
+        public long getSequence()
+        {
+            return sequence;
+        }
+
+        public Collection<String> getPaths()
+        {
+            return paths;
+        }
+
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.concurrent.Executor;
+
+/**
+ * An executor that runs its tasks within the build contexts of the thread submitting the task.
+ */
+class ContextAwareExecutor
+    implements Executor
+{
+
+    final DefaultBuildContextManager manager;
+
+    private final Executor executor;
+
+    public ContextAwareExecutor( DefaultBuildContextManager manager, Executor executor )
+    {
+        if ( manager == null )
+        {
+            throw new IllegalArgumentException( "build context manager not specified" );
+        }
+        if ( executor == null )
+        {
+            throw new IllegalArgumentException( "executor not specified" );
+        }
+        this.manager = manager;
+        this.executor = executor;
+    }
+
+    public void execute( Runnable command )
+    {
+        executor.execute( manager.wrap( command ) );
+    }
+
+}
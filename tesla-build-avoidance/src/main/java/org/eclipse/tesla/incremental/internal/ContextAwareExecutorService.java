@@ -0,0 +1,112 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An executor service that runs its tasks within the build contexts of the thread submitting the task.
+ */
+class ContextAwareExecutorService
+    extends ContextAwareExecutor
+    implements ExecutorService
+{
+
+    private final ExecutorService executor;
+
+    public ContextAwareExecutorService( DefaultBuildContextManager manager, ExecutorService executor )
+    {
+        super( manager, executor );
+        this.executor = executor;
+    }
+
+    private <T> Collection<Callable<T>> wrap( Collection<? extends Callable<T>> tasks )
+    {
+        Collection<Callable<T>> wrapped = new ArrayList<Callable<T>>( tasks.size() );
+        for ( Callable<T> task : tasks )
+        {
+            wrapped.add( manager.wrap( task ) );
+        }
+        return wrapped;
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+
+    public List<Runnable> shutdownNow()
+    {
+        return executor.shutdownNow();
+    }
+
+    public boolean isShutdown()
+    {
+        return executor.isShutdown();
+    }
+
+    public boolean isTerminated()
+    {
+        return executor.isTerminated();
+    }
+
+    public boolean awaitTermination( long timeout, TimeUnit unit )
+        throws InterruptedException
+    {
+        return executor.awaitTermination( timeout, unit );
+    }
+
+    public <T> Future<T> submit( Callable<T> task )
+    {
+        return executor.submit( manager.wrap( task ) );
+    }
+
+    public <T> Future<T> submit( Runnable task, T result )
+    {
+        return executor.submit( manager.wrap( task ), result );
+    }
+
+    public Future<?> submit( Runnable task )
+    {
+        return executor.submit( manager.wrap( task ) );
+    }
+
+    public <T> List<Future<T>> invokeAll( Collection<? extends Callable<T>> tasks )
+        throws InterruptedException
+    {
+        return executor.invokeAll( wrap( tasks ) );
+    }
+
+    public <T> List<Future<T>> invokeAll( Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit )
+        throws InterruptedException
+    {
+        return executor.invokeAll( wrap( tasks ), timeout, unit );
+    }
+
+    public <T> T invokeAny( Collection<? extends Callable<T>> tasks )
+        throws InterruptedException, ExecutionException
+    {
+        return executor.invokeAny( wrap( tasks ) );
+    }
+
+    public <T> T invokeAny( Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit )
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        return executor.invokeAny( wrap( tasks ), timeout, unit );
+    }
+
+}
@@ -42,7 +42,7 @@ class DefaultBuildContext
 
     private final File outputDirectory;
 
-    private final BuildState buildState;
+    private final PendingBuildState pendingState;
 
     private final Collection<File> deletedInputs;
 
@@ -62,8 +62,10 @@ class DefaultBuildContext
 
     private final Map<File, Collection<Message>> messages;
 
-    public DefaultBuildContext( DefaultBuildContextManager manager, File outputDirectory, BuildState buildState,
-                                boolean fullBuild )
+    private final ScanCache scanCache;
+
+    public DefaultBuildContext( DefaultBuildContextManager manager, File outputDirectory,
+                                PendingBuildState buildState, boolean fullBuild )
     {
         if ( manager == null )
         {
@@ -85,7 +87,7 @@ class DefaultBuildContext
         this.log = manager.log;
         this.manager = manager;
         this.outputDirectory = outputDirectory;
-        this.buildState = buildState;
+        this.pendingState = buildState;
         this.fullBuild = fullBuild;
 
         this.deletedInputs = new TreeSet<File>( Collections.reverseOrder() );
@@ -95,6 +97,12 @@ class DefaultBuildContext
         this.unmodifiedOutputs = new HashSet<File>();
         this.inputSets = new HashSet<PathSet>();
         this.messages = new HashMap<File, Collection<Message>>();
+        this.scanCache = new ScanCache();
+    }
+
+    private BuildState getBuildState()
+    {
+        return pendingState.get();
     }
 
     public Digester newDigester()
@@ -113,7 +121,7 @@ class DefaultBuildContext
     {
         failIfClosed();
 
-        return buildState.getValue( key );
+        return getBuildState().getValue( key );
     }
 
     public <T extends Serializable> T getValue( Serializable key, Class<T> valueType )
@@ -139,14 +147,14 @@ class DefaultBuildContext
     {
         failIfClosed();
 
-        buildState.setValue( key, value );
+        getBuildState().setValue( key, value );
     }
 
     public boolean setConfiguration( PathSet paths, byte[] digest )
     {
         failIfClosed();
 
-        return buildState.setConfiguration( paths, digest );
+        return getBuildState().setConfiguration( paths, digest );
     }
 
     public synchronized Collection<String> getInputs( PathSet paths, boolean fullBuild )
@@ -161,11 +169,16 @@ class DefaultBuildContext
         inputSets.add( new PathSet( paths ) );
 
         InputResolutionContext context =
-            new DefaultInputResolutionContext( this, paths, fullBuild || this.fullBuild, buildState );
+            new DefaultInputResolutionContext( this, paths, fullBuild || this.fullBuild, getBuildState(), scanCache,
+                                               manager.getSelector( paths ) );
 
         Collection<String> inputs = new ArrayList<String>();
 
-        for ( Path path : manager.resolveInputs( context ) )
+        long start = System.nanoTime();
+        Collection<Path> resolvedPaths = manager.resolveInputs( context );
+        manager.statistics.pathsScanned( start );
+
+        for ( Path path : resolvedPaths )
         {
             File inputFile = new File( paths.getBasedir(), path.getPath() );
 
@@ -258,6 +271,7 @@ class DefaultBuildContext
                     output = FileUtils.resolve( output, null );
 
                     modifiedOutputs.add( output );
+                    scanCache.invalidate( output );
 
                     if ( addedOutputs != null )
                     {
@@ -273,6 +287,7 @@ class DefaultBuildContext
         if ( modified )
         {
             modifiedOutputs.add( output );
+            scanCache.invalidate( output );
         }
         else
         {
@@ -289,9 +304,12 @@ class DefaultBuildContext
 
         reference.clear();
 
+        manager.contextClosed( this );
+
         if ( !closed )
         {
-            manager.destroy( buildState );
+            pendingState.cancel();
+            manager.destroy( pendingState.getStateFile() );
         }
 
         closed = true;
@@ -311,6 +329,10 @@ class DefaultBuildContext
 
         closed = true;
 
+        long startNanos = System.nanoTime();
+
+        BuildState buildState = getBuildState();
+
         modifiedOutputs.removeAll( unmodifiedOutputs );
         int produced = modifiedOutputs.size();
 
@@ -337,13 +359,15 @@ class DefaultBuildContext
 
         Map<File, Collection<Message>> oldMessages = buildState.mergeMessages( messages );
 
-        save();
+        save( buildState );
 
         if ( !modifiedOutputs.isEmpty() )
         {
             manager.outputUpdated( modifiedOutputs );
         }
 
+        manager.statistics.contextCommitted( startNanos );
+
         if ( log.isDebugEnabled() )
         {
             long millis = System.currentTimeMillis() - start;
@@ -352,8 +376,11 @@ class DefaultBuildContext
                 + deletedOrphaned + " orphaned outputs deleted, " + errorDelta + " messages, " + millis + " ms" );
         }
 
+        SelectorCache selectors = manager.getSelectorCache();
+
         // replay old messages
-        for ( Map.Entry<File, Collection<Message>> messages : buildState.getSelectedMessages( inputSets, oldMessages ).entrySet() )
+        for ( Map.Entry<File, Collection<Message>> messages : buildState.getSelectedMessages( inputSets, oldMessages,
+                                                                                               selectors ).entrySet() )
         {
             for ( Message message : messages.getValue() )
             {
@@ -362,7 +389,7 @@ class DefaultBuildContext
             }
         }
 
-        int errors = buildState.getErrors( inputSets );
+        int errors = buildState.getErrors( inputSets, selectors );
         if ( errors > 0 )
         {
             throw new BuildException( errors + " error" + ( errors == 1 ? "" : "s" )
@@ -401,7 +428,7 @@ class DefaultBuildContext
         return deleted;
     }
 
-    private void save()
+    private void save( BuildState buildState )
     {
         if ( log.isDebugEnabled() && buildState.isStale() )
         {
@@ -410,7 +437,9 @@ class DefaultBuildContext
 
         try
         {
-            buildState.save();
+            long start = System.nanoTime();
+            manager.writeBuildState( buildState );
+            manager.statistics.stateSaved( start );
         }
         catch ( IOException e )
         {
@@ -421,31 +450,37 @@ class DefaultBuildContext
 
     public void addMessage( File input, int line, int column, String message, int severity, Throwable cause )
     {
-        failIfClosed();
-
         input = FileUtils.resolve( input, null );
 
-        Collection<Message> messages = this.messages.get( input );
-
-        if ( messages == null )
+        synchronized ( this )
         {
-            throw new IllegalStateException( "addMessage without prio clearMessages" );
-        }
+            failIfClosed();
+
+            Collection<Message> messages = this.messages.get( input );
+
+            if ( messages == null )
+            {
+                throw new IllegalStateException( "addMessage without prio clearMessages" );
+            }
 
-        messages.add( new Message( line, column, message, severity, cause ) );
+            messages.add( new Message( line, column, message, severity, cause ) );
+        }
 
         manager.addMessage( input, line, column, message, severity, cause );
     }
 
     public void clearMessages( File input )
     {
-        failIfClosed();
-
         input = FileUtils.resolve( input, null );
 
-        buildState.clearErrors( input );
+        synchronized ( this )
+        {
+            failIfClosed();
+
+            getBuildState().clearErrors( input );
 
-        messages.put( input, new ArrayList<Message>() );
+            messages.put( input, new ArrayList<Message>() );
+        }
 
         manager.clearMessages( input );
     }
@@ -458,7 +493,7 @@ class DefaultBuildContext
         }
     }
 
-    public void addReferencedInputs( File input, Collection<File> referencedInputs )
+    public synchronized void addReferencedInputs( File input, Collection<File> referencedInputs )
     {
         if ( referencedInputs != null )
         {
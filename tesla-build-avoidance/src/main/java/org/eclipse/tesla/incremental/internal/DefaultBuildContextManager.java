@@ -12,6 +12,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -19,29 +20,161 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.eclipse.tesla.incremental.BuildContext;
-import org.eclipse.tesla.incremental.BuildContextManager;
+import org.eclipse.tesla.incremental.BuildContextScope;
+import org.eclipse.tesla.incremental.ChangeSource;
+import org.eclipse.tesla.incremental.ConcurrentBuildContextManager;
 import org.eclipse.tesla.incremental.Digester;
 import org.eclipse.tesla.incremental.PathSet;
 
 @Named
 @Singleton
 public class DefaultBuildContextManager
-    implements BuildContextManager
+    implements ConcurrentBuildContextManager
 {
 
+    /**
+     * The name of the system property that enables registration of a {@link BuildContextManagerStatisticsMBean} with
+     * the platform MBean server.
+     * 
+     * @see #dispose()
+     */
+    public static final String JMX_PROPERTY = "tesla.incremental.jmx";
+
+    /**
+     * The name of the system property that enables parallel directory scans by default.
+     * 
+     * @see #setParallelScan(boolean)
+     */
+    public static final String PARALLEL_SCAN_PROPERTY = "tesla.incremental.parallelScan";
+
+    /**
+     * The name of the system property that enables change journals by default.
+     * 
+     * @see #setChangeJournal(boolean)
+     */
+    public static final String CHANGE_JOURNAL_PROPERTY = "tesla.incremental.changeJournal";
+
+    /**
+     * The name of the system property that enables change detection via git indexes by default.
+     * 
+     * @see #setGitIndex(boolean)
+     */
+    public static final String GIT_INDEX_PROPERTY = "tesla.incremental.gitIndex";
+
+    /**
+     * The name of the system property that enables scan summaries by default.
+     * 
+     * @see #setScanSummary(boolean)
+     */
+    public static final String SCAN_SUMMARY_PROPERTY = "tesla.incremental.scanSummary";
+
+    /**
+     * The name of the system property that specifies a file listing the changed paths, one per line, to be used as the
+     * default change source.
+     * 
+     * @see #setChangeSource(ChangeSource)
+     * @see FileListChangeSource
+     */
+    public static final String CHANGE_LIST_PROPERTY = "tesla.incremental.changeList";
+
+    /**
+     * The name of the system property that specifies the default handling of symbolic links to directories, given as
+     * the name of a {@link SymlinkPolicy} like {@code follow_once}.
+     * 
+     * @see #setSymlinkPolicy(SymlinkPolicy)
+     */
+    public static final String SYMLINKS_PROPERTY = "tesla.incremental.symlinks";
+
+    /**
+     * The name of the system property that specifies a {@link BuildStateServer} to obtain and store build states via,
+     * given as {@code <port>,<token file>}.
+     * 
+     * @see #setStateServer(int, File)
+     */
+    public static final String STATE_SERVER_PROPERTY = "tesla.incremental.stateServer";
+
+    private static final long JOURNAL_POLL_INTERVAL = 1000;
+
+    // the maximum delay between polls of a journal whose directories did not change recently
+    private static final long JOURNAL_MAX_POLL_INTERVAL = 30 * 1000;
+
+    // the time after which a journal that no build asked for gets dropped
+    private static final long JOURNAL_IDLE_TIMEOUT = 10 * 60 * 1000;
+
+    // the time after which a preloaded build state that no build context asked for gets dropped
+    private static final long PRELOAD_EXPIRY = 10 * 60 * 1000;
+
+    // the maximum number of preloaded build states waiting for a build context
+    private static final int MAX_PRELOADS = 256;
+
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
     protected Logger log;
 
+    final BuildContextManagerStatistics statistics;
+
+    // the name of the registered statistics MBean, if any
+    private ObjectName mbeanName;
+
+    // open context -> name of creating thread
+    private final Map<BuildContext, String> openContexts;
+
     final Map<File, WeakReference<BuildState>> buildStates;
 
+    // state file -> background load requested via preloadContext(), dropped once handed to a build context or expired
+    private final Map<File, PendingBuildState> pendingStates;
+
+    private ExecutorService stateLoader;
+
+    private volatile boolean parallelScan = Boolean.getBoolean( PARALLEL_SCAN_PROPERTY );
+
+    private ExecutorService scanner;
+
+    private volatile boolean changeJournal = Boolean.getBoolean( CHANGE_JOURNAL_PROPERTY );
+
+    // input path set -> journal
+    private final Map<PathSet, ChangeJournal> changeJournals = new HashMap<PathSet, ChangeJournal>();
+
+    private ScheduledExecutorService journalPoller;
+
+    private volatile GitIndexCache gitIndexes;
+
+    private volatile boolean scanSummary = Boolean.getBoolean( SCAN_SUMMARY_PROPERTY );
+
+    private volatile ChangeSource changeSource;
+
+    private volatile SymlinkPolicy symlinkPolicy = SymlinkPolicy.FOLLOW;
+
+    private volatile BuildStateClient stateServer;
+
+    private final SelectorCache selectors = new SelectorCache();
+
     private final InheritableThreadLocal<SortedMap<File, WeakReference<BuildContext>>> buildContexts =
         new InheritableThreadLocal<SortedMap<File, WeakReference<BuildContext>>>()
         {
@@ -66,6 +199,111 @@ public class DefaultBuildContextManager
     {
         this.log = ( log != null ) ? log : NullLogger.INSTANCE;
         buildStates = new HashMap<File, WeakReference<BuildState>>();
+        pendingStates = new HashMap<File, PendingBuildState>();
+        openContexts = new WeakHashMap<BuildContext, String>();
+        statistics = new BuildContextManagerStatistics( this );
+
+        if ( Boolean.getBoolean( GIT_INDEX_PROPERTY ) )
+        {
+            setGitIndex( true );
+        }
+
+        String changeList = System.getProperty( CHANGE_LIST_PROPERTY, "" );
+        if ( changeList.length() > 0 )
+        {
+            setChangeSource( new FileListChangeSource( new File( changeList ) ) );
+        }
+
+        String symlinks = System.getProperty( SYMLINKS_PROPERTY, "" );
+        if ( symlinks.length() > 0 )
+        {
+            try
+            {
+                setSymlinkPolicy( SymlinkPolicy.valueOf( symlinks.toUpperCase( Locale.ENGLISH ) ) );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                this.log.warn( "Unknown symlink policy " + symlinks + ", following symlinks" );
+            }
+        }
+
+        String stateServer = System.getProperty( STATE_SERVER_PROPERTY, "" );
+        if ( stateServer.length() > 0 )
+        {
+            int comma = stateServer.indexOf( ',' );
+            try
+            {
+                setStateServer( Integer.parseInt( stateServer.substring( 0, Math.max( comma, 0 ) ).trim() ),
+                                new File( stateServer.substring( comma + 1 ) ) );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                this.log.warn( "Invalid build state server " + stateServer + ", expected <port>,<token file>" );
+            }
+        }
+
+        if ( Boolean.getBoolean( JMX_PROPERTY ) )
+        {
+            registerMBean();
+        }
+    }
+
+    private synchronized void registerMBean()
+    {
+        try
+        {
+            ObjectName name =
+                new ObjectName( "org.eclipse.tesla.incremental:type=BuildContextManager,name="
+                    + INSTANCES.incrementAndGet() );
+            StandardMBean mbean = new StandardMBean( statistics, BuildContextManagerStatisticsMBean.class );
+            ManagementFactory.getPlatformMBeanServer().registerMBean( mbean, name );
+            mbeanName = name;
+        }
+        catch ( JMException e )
+        {
+            log.debug( "Could not register build context manager MBean", e );
+        }
+    }
+
+    private synchronized void unregisterMBean()
+    {
+        if ( mbeanName != null )
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean( mbeanName );
+            }
+            catch ( JMException e )
+            {
+                log.debug( "Could not unregister build context manager MBean", e );
+            }
+            mbeanName = null;
+        }
+    }
+
+    /**
+     * Releases the resources held by this manager, i.e. unregisters its MBean and stops its background threads. Hosts
+     * that discard a manager, e.g. when reloading a plugin, should call this method since the platform MBean server
+     * would otherwise keep the manager and its cached build states reachable for the life of the JVM. The manager
+     * remains usable afterwards but no longer tracks input directories via change journals.
+     */
+    public void dispose()
+    {
+        unregisterMBean();
+        setChangeJournal( false );
+        synchronized ( this )
+        {
+            if ( stateLoader != null )
+            {
+                stateLoader.shutdown();
+                stateLoader = null;
+            }
+            if ( scanner != null )
+            {
+                scanner.shutdown();
+                scanner = null;
+            }
+        }
     }
 
     public void addMessage( File input, int line, int column, String message, int severity, Throwable cause )
@@ -149,157 +387,979 @@ public class DefaultBuildContextManager
 
         boolean fullBuild = isFullBuild( outputDirectory, stateDirectory, builderId );
 
-        BuildState buildState = getBuildState( outputDirectory, stateDirectory, builderId, fullBuild );
+        PendingBuildState buildState = getBuildState( outputDirectory, stateDirectory, builderId, fullBuild );
 
         DefaultBuildContext context = new DefaultBuildContext( this, outputDirectory, buildState, fullBuild );
         buildContexts.get().put( outputDirectory, context.reference );
 
+        synchronized ( openContexts )
+        {
+            openContexts.put( context, Thread.currentThread().getName() );
+        }
+
         return context;
     }
 
-    protected Digester newDigester( File outputDirectory )
+    public void preloadContext( File outputDirectory, File stateDirectory, String builderId )
     {
-        return new DefaultDigester();
-    }
+        if ( outputDirectory == null )
+        {
+            throw new IllegalArgumentException( "output directory not specified" );
+        }
+        if ( stateDirectory == null )
+        {
+            throw new IllegalArgumentException( "build state directory not specified" );
+        }
+        if ( builderId == null )
+        {
+            throw new IllegalArgumentException( "builder identifier not specified" );
+        }
 
-    protected boolean isFullBuild( File outputDirectory, File stateDirectory, String builderId )
-    {
-        // hook to externally enforce full build
-        return false;
-    }
+        outputDirectory = FileUtils.resolve( outputDirectory, null );
 
-    void destroy( BuildState buildState )
-    {
-        File stateFile = buildState.getStateFile();
-        synchronized ( buildStates )
+        if ( isFullBuild( outputDirectory, stateDirectory, builderId ) )
         {
-            buildStates.remove( stateFile );
-            stateFile.delete();
+            return;
         }
-    }
 
-    private BuildState getBuildState( File outputDirectory, File stateDirectory, String builderId, boolean fullBuild )
-    {
-        File stateFile = getStateFile( outputDirectory, stateDirectory, builderId );
+        final File stateFile = getStateFile( outputDirectory, stateDirectory, builderId );
 
         synchronized ( buildStates )
         {
-            BuildState buildState = null;
+            purgePendingStates();
 
-            purgeBuildStates();
+            if ( pendingStates.containsKey( stateFile ) || pendingStates.size() >= MAX_PRELOADS )
+            {
+                return;
+            }
 
             WeakReference<BuildState> ref = buildStates.get( stateFile );
-            if ( !fullBuild && ref != null )
+            BuildState buildState = ( ref != null ) ? ref.get() : null;
+            if ( buildState != null && !buildState.isStale() )
             {
-                buildState = ref.get();
+                return;
             }
 
-            if ( buildState == null )
+            if ( !stateFile.isFile() )
             {
-                if ( !fullBuild && stateFile.isFile() )
-                {
-                    try
-                    {
-                        buildState = BuildState.load( stateFile );
-                    }
-                    catch ( IOException e )
-                    {
-                        log.warn( "Could not deserialize incremental build state from " + stateFile,
-                                  log.isDebugEnabled() ? e : null );
-                    }
-                }
+                return;
+            }
 
-                if ( buildState == null )
-                {
-                    buildState = new BuildState( stateFile );
-                }
+            pendingStates.put( stateFile, newPendingBuildState( stateFile ) );
+        }
+    }
 
-                buildStates.put( stateFile, new WeakReference<BuildState>( buildState ) );
+    private PendingBuildState newPendingBuildState( final File stateFile )
+    {
+        Future<BuildState> loading = getStateLoader().submit( new Callable<BuildState>()
+        {
+            public BuildState call()
+            {
+                return loadBuildState( stateFile );
             }
+        } );
+        return new PendingBuildState( this, stateFile, loading );
+    }
 
-            return buildState;
+    private synchronized ExecutorService getStateLoader()
+    {
+        if ( stateLoader == null )
+        {
+            int threads = Math.max( 1, Math.min( 4, Runtime.getRuntime().availableProcessors() ) );
+            stateLoader = Executors.newFixedThreadPool( threads, newThreadFactory( "build-state-loader-" ) );
         }
+        return stateLoader;
     }
 
-    private void purgeBuildStates()
+    private synchronized ExecutorService getScanner()
     {
-        for ( Iterator<Map.Entry<File, WeakReference<BuildState>>> it = buildStates.entrySet().iterator(); it.hasNext(); )
+        if ( scanner == null )
         {
-            BuildState buildState = it.next().getValue().get();
-            if ( buildState == null || buildState.isStale() )
+            int threads = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+            scanner = Executors.newFixedThreadPool( threads, newThreadFactory( "build-scanner-" ) );
+        }
+        return scanner;
+    }
+
+    private static ThreadFactory newThreadFactory( final String namePrefix )
+    {
+        return new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread( Runnable r )
             {
-                it.remove();
+                Thread thread = new Thread( r, namePrefix + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
             }
-        }
+        };
     }
 
-    protected File getStateFile( File outputDirectory, File stateDirectory, String builderId )
+    /**
+     * Controls whether input and output directories are scanned using multiple threads. A parallel scan pays off for
+     * large directory trees on storage that handles concurrent requests well, and reports the paths of each directory
+     * in sorted order. The default is taken from the system property {@link #PARALLEL_SCAN_PROPERTY}.
+     * 
+     * @param parallelScan {@code true} to scan directories in parallel, {@code false} to scan them sequentially.
+     */
+    public void setParallelScan( boolean parallelScan )
     {
-        Digester digester = newDigester( outputDirectory );
-        String digest1 =
-            DigestUtils.toHexString( digester.string( FileUtils.normalize( outputDirectory ).getPath() ).finish() );
-        String digest2 = DigestUtils.toHexString( digester.string( builderId ).finish() );
-        return new File( stateDirectory.getAbsolutePath(), digest1 + "-" + digest2 + ".ser" );
+        this.parallelScan = parallelScan;
     }
 
-    protected void outputUpdated( Collection<File> outputs )
+    public boolean isParallelScan()
     {
-        // defaults to noop, useful for refreshing of IDE
+        return parallelScan;
     }
 
-    protected Collection<Path> resolveInputs( final InputResolutionContext context )
+    /**
+     * Controls whether the input directories are tracked by change journals. Once a build scanned an input directory,
+     * a background thread polls the directory tree for changes and later builds only need to examine the changed paths
+     * instead of scanning the entire tree again. This mode is meant for long-lived hosts like IDEs or build daemons
+     * that run many builds over the same directories. Only the paths selected by an input path set are tracked, the
+     * polls back off while nothing changes and a journal that no build used for ten minutes is dropped. Changes made
+     * up to about a second before a build are guaranteed to be seen by it. Outputs that were deleted by someone other
+     * than the build are not noticed in this mode, nor are path sets that exclude the paths ignored by git tracked. The
+     * default is taken from the system property {@link #CHANGE_JOURNAL_PROPERTY}.
+     * 
+     * @param changeJournal {@code true} to track input directories via change journals, {@code false} to scan them
+     *            during each build.
+     */
+    public void setChangeJournal( boolean changeJournal )
     {
-        final Collection<Path> dirtyPaths = new ArrayList<Path>();
-        final Collection<File> selectedFiles = new HashSet<File>( 128 );
+        this.changeJournal = changeJournal;
+        if ( !changeJournal )
+        {
+            synchronized ( changeJournals )
+            {
+                if ( journalPoller != null )
+                {
+                    journalPoller.shutdownNow();
+                    journalPoller = null;
+                }
+                changeJournals.clear();
+            }
+        }
+    }
+
+    public boolean isChangeJournal()
+    {
+        return changeJournal;
+    }
+
+    ChangeJournal getChangeJournal( PathSet pathSet )
+    {
+        ChangeJournal journal;
 
-        Selector selector = new Selector()
+        synchronized ( changeJournals )
         {
-            public boolean isSelected( String pathname )
+            journal = changeJournals.get( pathSet );
+            if ( journal == null )
             {
-                return context.isSelected( pathname );
+                if ( journalPoller == null )
+                {
+                    journalPoller =
+                        Executors.newSingleThreadScheduledExecutor( newThreadFactory( "build-change-journal-" ) );
+                }
+
+                // path sets are mutable so the map needs its own copy of the key
+                PathSet key = new PathSet( pathSet );
+                File basedir = FileUtils.normalize( key.getBasedir() );
+                journal = new ChangeJournal( basedir, getSelector( key ), symlinkPolicy );
+                changeJournals.put( key, journal );
+                schedulePoll( key, journal, 0 );
             }
+            journal.touch();
+        }
 
-            public boolean isAncestorOfPotentiallySelected( String pathname )
+        // the background polls back off, so catch up here to not miss changes made just before the build
+        if ( journal.getSequence() > 0 && System.currentTimeMillis() - journal.getLastPoll() > JOURNAL_POLL_INTERVAL )
+        {
+            try
             {
-                return context.isAncestorOfPotentiallySelected( pathname );
+                journal.poll();
             }
-        };
+            catch ( RuntimeException e )
+            {
+                log.debug( "Could not poll " + journal.getBasedir() + " for changes", e );
+                return null;
+            }
+        }
 
-        PathSet pathSet = context.getPathSet();
+        return journal;
+    }
 
-        DirectoryScan scan =
-            new DirectoryScan( pathSet.getBasedir(), selector, pathSet.isIncludingDirectories(),
-                               pathSet.isIncludingFiles() )
+    private void schedulePoll( final PathSet key, final ChangeJournal journal, final long delay )
+    {
+        journalPoller.schedule( new Runnable()
+        {
+            public void run()
             {
-                @Override
-                protected void onItem( String pathname, File file )
+                if ( System.currentTimeMillis() - journal.getLastAccess() > JOURNAL_IDLE_TIMEOUT )
                 {
-                    selectedFiles.add( file );
-                    if ( context.isProcessingRequired( file ) )
+                    synchronized ( changeJournals )
                     {
-                        dirtyPaths.add( new Path( pathname ) );
+                        if ( changeJournals.get( key ) == journal )
+                        {
+                            changeJournals.remove( key );
+                        }
                     }
+                    return;
                 }
-            };
-        scan.run();
 
-        for ( String pathname : context.getDeletedInputPaths( selectedFiles ) )
+                long next = JOURNAL_POLL_INTERVAL;
+                try
+                {
+                    if ( !journal.poll() )
+                    {
+                        next = Math.min( Math.max( delay, JOURNAL_POLL_INTERVAL ) * 2, JOURNAL_MAX_POLL_INTERVAL );
+                    }
+                }
+                catch ( RuntimeException e )
+                {
+                    log.debug( "Could not poll " + journal.getBasedir() + " for changes", e );
+                }
+
+                synchronized ( changeJournals )
+                {
+                    if ( journalPoller != null && changeJournals.get( key ) == journal )
+                    {
+                        schedulePoll( key, journal, next );
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Controls whether input files tracked by git are identified by their blob ids as recorded in the index of their
+     * work tree. A file whose timestamp changed but whose blob id is still the same as during the previous build, e.g.
+     * after switching to another branch and back, is then not considered changed. The index is read directly, no git
+     * executable is required. The setting applies to the build states loaded afterwards. The default is taken from the
+     * system property {@link #GIT_INDEX_PROPERTY}.
+     * 
+     * @param gitIndex {@code true} to consult git indexes, {@code false} to rely on file timestamps and sizes only.
+     */
+    public void setGitIndex( boolean gitIndex )
+    {
+        gitIndexes = gitIndex ? new GitIndexCache( log ) : null;
+    }
+
+    public boolean isGitIndex()
+    {
+        return gitIndexes != null;
+    }
+
+    /**
+     * Controls whether the outcome of an input scan is remembered in the build state. A later incremental build of the
+     * same path set merely checks the timestamps of the directories listed by that scan and, if none of them has been
+     * modified, checks the previously selected inputs for changes without listing any directory or matching any path.
+     * Path sets that exclude the paths ignored by git are always scanned since the summary does not cover the ignore
+     * files. The default is taken from the system property {@link #SCAN_SUMMARY_PROPERTY}.
+     * 
+     * @param scanSummary {@code true} to reuse the outcome of previous scans, {@code false} to scan during each build.
+     */
+    public void setScanSummary( boolean scanSummary )
+    {
+        this.scanSummary = scanSummary;
+    }
+
+    public boolean isScanSummary()
+    {
+        return scanSummary;
+    }
+
+    /**
+     * Sets the source of the changes since the previous build. During an incremental build, input directories whose
+     * changes are known to the change source are not scanned, only the changed paths and the inputs referencing other
+     * files are examined. Input path sets that have not been scanned by a previous build or that exclude the paths
+     * ignored by git are always scanned. The default change source reads the file given by the system property
+     * {@link #CHANGE_LIST_PROPERTY}, if any.
+     * 
+     * @param changeSource The change source to consult, may be {@code null} to always scan input directories.
+     */
+    public void setChangeSource( ChangeSource changeSource )
+    {
+        this.changeSource = changeSource;
+    }
+
+    public ChangeSource getChangeSource()
+    {
+        return changeSource;
+    }
+
+    /**
+     * Controls how directory scans deal with symbolic links to directories. Following links without checks is the
+     * fastest option but walks a link cycle until the paths get too long for the file system and scans a directory
+     * again for each link to it. The other options determine the canonical path of each scanned directory to recognize
+     * links. The default is taken from the system property {@link #SYMLINKS_PROPERTY}.
+     * 
+     * @param symlinkPolicy The handling of symbolic links to directories, may be {@code null} to follow them without
+     *            checks.
+     */
+    public void setSymlinkPolicy( SymlinkPolicy symlinkPolicy )
+    {
+        this.symlinkPolicy = ( symlinkPolicy != null ) ? symlinkPolicy : SymlinkPolicy.FOLLOW;
+    }
+
+    public SymlinkPolicy getSymlinkPolicy()
+    {
+        return symlinkPolicy;
+    }
+
+    /**
+     * Sets the {@link BuildStateServer} to obtain and store build states via, sparing short-lived build processes from
+     * reading the state files again. If the server cannot be reached or fails to authenticate itself, the state files
+     * are accessed directly from then on. The default is taken from the system property
+     * {@link #STATE_SERVER_PROPERTY}.
+     * 
+     * @param port The loopback port the server listens on, non-positive to access the state files directly.
+     * @param tokenFile The token file written by the server, must not be {@code null} if a port is given.
+     */
+    public void setStateServer( int port, File tokenFile )
+    {
+        stateServer = ( port > 0 ) ? new BuildStateClient( log, port, tokenFile ) : null;
+    }
+
+    boolean isStateServerAvailable()
+    {
+        BuildStateClient stateServer = this.stateServer;
+        return stateServer != null && stateServer.isAvailable();
+    }
+
+    /**
+     * Gets the compiled selector for the specified path set. Selectors are cached across build contexts.
+     * 
+     * @param pathSet The path set to get the selector for, must not be {@code null}.
+     * @return The selector, never {@code null}.
+     */
+    Selector getSelector( PathSet pathSet )
+    {
+        return selectors.getSelector( pathSet );
+    }
+
+    SelectorCache getSelectorCache()
+    {
+        return selectors;
+    }
+
+    private Executor getScanExecutor()
+    {
+        return parallelScan ? getScanner() : null;
+    }
+
+    public BuildContextScope enterContext( BuildContext context )
+    {
+        if ( context == null )
         {
-            dirtyPaths.add( new Path( pathname, true ) );
+            throw new IllegalArgumentException( "build context not specified" );
         }
 
-        return dirtyPaths;
+        WeakReference<BuildContext> reference;
+        if ( context instanceof DefaultBuildContext )
+        {
+            reference = ( (DefaultBuildContext) context ).reference;
+        }
+        else
+        {
+            reference = new WeakReference<BuildContext>( context );
+        }
+
+        return enterContexts( Collections.singletonMap( context.getOutputDirectory(), reference ) );
     }
 
-    protected Collection<File> resolveOutputs( PathSet pathSet )
+    public Executor wrapExecutor( Executor executor )
     {
-        final Collection<File> selectedFiles = new HashSet<File>( 128 );
+        return new ContextAwareExecutor( this, executor );
+    }
 
-        Selector selector = new GlobSelector( pathSet );
+    public ExecutorService wrapExecutorService( ExecutorService executor )
+    {
+        return new ContextAwareExecutorService( this, executor );
+    }
+
+    private BuildContextScope enterContexts( Map<File, WeakReference<BuildContext>> contexts )
+    {
+        final SortedMap<File, WeakReference<BuildContext>> previous = buildContexts.get();
+
+        SortedMap<File, WeakReference<BuildContext>> current =
+            new TreeMap<File, WeakReference<BuildContext>>( previous );
+        current.putAll( contexts );
+        buildContexts.set( current );
+
+        return new BuildContextScope()
+        {
+            private boolean closed;
+
+            public void close()
+            {
+                if ( !closed )
+                {
+                    closed = true;
+                    buildContexts.set( previous );
+                }
+            }
+        };
+    }
+
+    Runnable wrap( final Runnable task )
+    {
+        if ( task == null )
+        {
+            throw new NullPointerException( "task not specified" );
+        }
+
+        final Map<File, WeakReference<BuildContext>> contexts =
+            new HashMap<File, WeakReference<BuildContext>>( buildContexts.get() );
+
+        return new Runnable()
+        {
+            public void run()
+            {
+                BuildContextScope scope = enterContexts( contexts );
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    scope.close();
+                }
+            }
+        };
+    }
+
+    <T> Callable<T> wrap( final Callable<T> task )
+    {
+        if ( task == null )
+        {
+            throw new NullPointerException( "task not specified" );
+        }
+
+        final Map<File, WeakReference<BuildContext>> contexts =
+            new HashMap<File, WeakReference<BuildContext>>( buildContexts.get() );
+
+        return new Callable<T>()
+        {
+            public T call()
+                throws Exception
+            {
+                BuildContextScope scope = enterContexts( contexts );
+                try
+                {
+                    return task.call();
+                }
+                finally
+                {
+                    scope.close();
+                }
+            }
+        };
+    }
+
+    protected Digester newDigester( File outputDirectory )
+    {
+        return new DefaultDigester();
+    }
+
+    protected boolean isFullBuild( File outputDirectory, File stateDirectory, String builderId )
+    {
+        // hook to externally enforce full build
+        return false;
+    }
+
+    void contextClosed( BuildContext context )
+    {
+        synchronized ( openContexts )
+        {
+            openContexts.remove( context );
+        }
+    }
+
+    Map<BuildContext, String> getOpenContexts()
+    {
+        synchronized ( openContexts )
+        {
+            return new HashMap<BuildContext, String>( openContexts );
+        }
+    }
+
+    Collection<BuildState> getCachedStates()
+    {
+        Collection<BuildState> states = new ArrayList<BuildState>();
+        synchronized ( buildStates )
+        {
+            for ( WeakReference<BuildState> ref : buildStates.values() )
+            {
+                BuildState buildState = ref.get();
+                if ( buildState != null )
+                {
+                    states.add( buildState );
+                }
+            }
+        }
+        return states;
+    }
+
+    int getPendingStateCount()
+    {
+        synchronized ( buildStates )
+        {
+            return pendingStates.size();
+        }
+    }
+
+    void evictBuildStates()
+    {
+        synchronized ( buildStates )
+        {
+            buildStates.clear();
+            for ( PendingBuildState pending : pendingStates.values() )
+            {
+                pending.cancel();
+            }
+            pendingStates.clear();
+        }
+    }
+
+    void flushBuildStates()
+    {
+        synchronized ( buildStates )
+        {
+            purgeBuildStates();
+            purgePendingStates();
+        }
+    }
+
+    void destroy( File stateFile )
+    {
+        synchronized ( buildStates )
+        {
+            buildStates.remove( stateFile );
+            PendingBuildState pending = pendingStates.remove( stateFile );
+            if ( pending != null )
+            {
+                pending.cancel();
+            }
+            stateFile.delete();
+        }
+    }
+
+    private PendingBuildState getBuildState( File outputDirectory, File stateDirectory, String builderId,
+                                             boolean fullBuild )
+    {
+        File stateFile = getStateFile( outputDirectory, stateDirectory, builderId );
+
+        synchronized ( buildStates )
+        {
+            purgeBuildStates();
+            purgePendingStates();
+
+            if ( fullBuild )
+            {
+                PendingBuildState pending = pendingStates.remove( stateFile );
+                if ( pending != null )
+                {
+                    pending.cancel();
+                }
+
+                BuildState buildState = newBuildState( stateFile );
+                buildStates.put( stateFile, new WeakReference<BuildState>( buildState ) );
+                return new PendingBuildState( buildState );
+            }
+
+            WeakReference<BuildState> ref = buildStates.get( stateFile );
+            BuildState buildState = ( ref != null ) ? ref.get() : null;
+            if ( buildState != null )
+            {
+                return new PendingBuildState( buildState );
+            }
+
+            PendingBuildState pending = pendingStates.remove( stateFile );
+            if ( pending == null )
+            {
+                if ( !stateFile.isFile() )
+                {
+                    buildState = newBuildState( stateFile );
+                    buildStates.put( stateFile, new WeakReference<BuildState>( buildState ) );
+                    return new PendingBuildState( buildState );
+                }
+
+                pending = newPendingBuildState( stateFile );
+            }
+
+            return pending;
+        }
+    }
+
+    BuildState claimBuildState( PendingBuildState pending, Future<BuildState> loading )
+    {
+        File stateFile = pending.getStateFile();
+
+        BuildState buildState = null;
+        boolean reload = false;
+
+        try
+        {
+            buildState = loading.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            reload = true;
+        }
+        catch ( CancellationException e )
+        {
+            // state got destroyed or replaced by a full build meanwhile
+            reload = true;
+        }
+        catch ( ExecutionException e )
+        {
+            log.warn( "Could not deserialize incremental build state from " + stateFile,
+                      log.isDebugEnabled() ? e.getCause() : null );
+        }
+
+        if ( buildState != null && buildState.isStale() )
+        {
+            // state file got updated after the background load, e.g. by another process
+            buildState = null;
+            reload = true;
+        }
+
+        synchronized ( buildStates )
+        {
+            WeakReference<BuildState> ref = buildStates.get( stateFile );
+            BuildState current = ( ref != null ) ? ref.get() : null;
+            if ( current != null && !current.isStale() )
+            {
+                return current;
+            }
+
+            if ( reload && stateFile.isFile() )
+            {
+                buildState = loadBuildState( stateFile );
+            }
+
+            if ( buildState == null )
+            {
+                buildState = newBuildState( stateFile );
+            }
+
+            buildStates.put( stateFile, new WeakReference<BuildState>( buildState ) );
+
+            return buildState;
+        }
+    }
+
+    private BuildState newBuildState( File stateFile )
+    {
+        BuildState buildState = new BuildState( stateFile );
+        buildState.setGitIndexes( gitIndexes );
+        return buildState;
+    }
+
+    private BuildState loadBuildState( File stateFile )
+    {
+        long start = System.nanoTime();
+        try
+        {
+            BuildState buildState = readBuildState( stateFile );
+            buildState.setGitIndexes( gitIndexes );
+            statistics.stateLoaded( start );
+            return buildState;
+        }
+        catch ( IOException e )
+        {
+            log.warn( "Could not deserialize incremental build state from " + stateFile,
+                      log.isDebugEnabled() ? e : null );
+            return null;
+        }
+    }
+
+    BuildState readBuildState( File stateFile )
+        throws IOException
+    {
+        BuildStateClient stateServer = this.stateServer;
+        if ( stateServer != null )
+        {
+            BuildState buildState = stateServer.read( stateFile );
+            if ( buildState != null )
+            {
+                return buildState;
+            }
+        }
+        return BuildState.load( stateFile );
+    }
+
+    void writeBuildState( BuildState buildState )
+        throws IOException
+    {
+        BuildStateClient stateServer = this.stateServer;
+        if ( stateServer == null || !stateServer.write( buildState ) )
+        {
+            buildState.save();
+        }
+    }
+
+    private void purgePendingStates()
+    {
+        long now = System.currentTimeMillis();
+        for ( Iterator<PendingBuildState> it = pendingStates.values().iterator(); it.hasNext(); )
+        {
+            PendingBuildState pending = it.next();
+            if ( now - pending.getCreated() > PRELOAD_EXPIRY )
+            {
+                pending.cancel();
+                it.remove();
+            }
+        }
+    }
+
+    private void purgeBuildStates()
+    {
+        for ( Iterator<Map.Entry<File, WeakReference<BuildState>>> it = buildStates.entrySet().iterator(); it.hasNext(); )
+        {
+            BuildState buildState = it.next().getValue().get();
+            if ( buildState == null || buildState.isStale() )
+            {
+                it.remove();
+            }
+        }
+    }
+
+    protected File getStateFile( File outputDirectory, File stateDirectory, String builderId )
+    {
+        Digester digester = newDigester( outputDirectory );
+        String digest1 =
+            DigestUtils.toHexString( digester.string( FileUtils.normalize( outputDirectory ).getPath() ).finish() );
+        String digest2 = DigestUtils.toHexString( digester.string( builderId ).finish() );
+        return new File( stateDirectory.getAbsolutePath(), digest1 + "-" + digest2 + ".ser" );
+    }
+
+    protected void outputUpdated( Collection<File> outputs )
+    {
+        // defaults to noop, useful for refreshing of IDE
+    }
+
+    protected Collection<Path> resolveInputs( final InputResolutionContext context )
+    {
+        PathSet pathSet = context.getPathSet();
+
+        // none of the shortcuts notices edits to ignore files which can select inputs that did not change themselves
+        boolean incremental = !context.isFullBuild() && !pathSet.isGitIgnoreExcludes();
+
+        ChangeSource changeSource = this.changeSource;
+        if ( changeSource != null && incremental && context.isScanned() )
+        {
+            Collection<String> changedPaths = changeSource.getChangedPaths( pathSet.getBasedir() );
+            if ( changedPaths != null )
+            {
+                return resolveInputs( context, changedPaths );
+            }
+        }
+
+        ChangeJournal journal = ( changeJournal && incremental ) ? getChangeJournal( pathSet ) : null;
+        if ( journal != null )
+        {
+            Collection<Path> dirtyPaths = resolveInputs( context, journal );
+            if ( dirtyPaths != null )
+            {
+                return dirtyPaths;
+            }
+        }
+
+        if ( scanSummary && incremental )
+        {
+            Collection<Path> dirtyPaths = resolveInputs( context, context.getScanSummary() );
+            if ( dirtyPaths != null )
+            {
+                return dirtyPaths;
+            }
+        }
+
+        // sequence before the scan, changes that happen during the scan are simply examined again by the next build
+        long journalSequence = ( journal != null ) ? journal.getSequence() : 0;
+
+        final Collection<Path> dirtyPaths = new ArrayList<Path>();
+        final Collection<File> selectedFiles = new HashSet<File>( 128 );
+
+        // literal paths are checked without listing any directory, so there is nothing to summarize
+        final ScanSummary.Builder summary =
+            ( scanSummary && !pathSet.isGitIgnoreExcludes() && context.getSelector().getLiteralPaths() == null )
+                            ? new ScanSummary.Builder() : null;
+
+        DirectoryScan scan =
+            new DirectoryScan( pathSet.getBasedir(), context.getSelector(), pathSet.isIncludingDirectories(),
+                               pathSet.isIncludingFiles(), getScanExecutor(), symlinkPolicy )
+            {
+                @Override
+                protected DirectoryListing list( File dir )
+                {
+                    DirectoryListing listing = context.listDirectory( dir );
+                    if ( summary != null )
+                    {
+                        summary.listed( dir, listing );
+                    }
+                    return listing;
+                }
+
+                @Override
+                protected void onFile( String pathname, File file )
+                {
+                    onItem( pathname, file, false );
+                }
+
+                @Override
+                protected void onDirectory( String pathname, File file )
+                {
+                    onItem( pathname, file, true );
+                }
+
+                private void onItem( String pathname, File file, boolean directory )
+                {
+                    selectedFiles.add( file );
+                    if ( summary != null )
+                    {
+                        summary.selected( pathname, directory );
+                    }
+                    if ( context.isProcessingRequired( file, directory ) )
+                    {
+                        dirtyPaths.add( new Path( pathname ) );
+                    }
+                }
+            };
+        scan.run();
+
+        context.setScanned();
+        if ( summary != null )
+        {
+            context.setScanSummary( summary.build() );
+        }
+
+        for ( String pathname : context.getDeletedInputPaths( selectedFiles ) )
+        {
+            dirtyPaths.add( new Path( pathname, true ) );
+        }
+
+        if ( journalSequence > 0 )
+        {
+            context.setJournalPosition( journalSequence );
+        }
+
+        return dirtyPaths;
+    }
+
+    private Collection<Path> resolveInputs( InputResolutionContext context, ScanSummary summary )
+    {
+        if ( summary == null || !summary.isCurrent() )
+        {
+            return null;
+        }
+
+        File basedir = context.getPathSet().getBasedir();
+
+        Collection<Path> dirtyPaths = new ArrayList<Path>();
+        Collection<File> selectedFiles = new HashSet<File>( summary.getPathCount() * 2 );
+
+        for ( int i = 0, n = summary.getPathCount(); i < n; i++ )
+        {
+            String pathname = summary.getPath( i );
+            File file = ( pathname.length() > 0 ) ? new File( basedir, pathname ) : basedir;
+            selectedFiles.add( file );
+            if ( context.isProcessingRequired( file, summary.isDirectory( i ) ) )
+            {
+                dirtyPaths.add( new Path( pathname ) );
+            }
+        }
+
+        for ( String pathname : context.getDeletedInputPaths( selectedFiles ) )
+        {
+            dirtyPaths.add( new Path( pathname, true ) );
+        }
+
+        return dirtyPaths;
+    }
+
+    private Collection<Path> resolveInputs( InputResolutionContext context, ChangeJournal journal )
+    {
+        ChangeJournal.Delta delta = journal.getChangesSince( context.getJournalPosition() );
+        if ( delta == null )
+        {
+            return null;
+        }
+
+        Collection<Path> dirtyPaths = resolveInputs( context, delta.getPaths() );
+
+        context.setJournalPosition( delta.getSequence() );
+
+        return dirtyPaths;
+    }
+
+    private Collection<Path> resolveInputs( InputResolutionContext context, Collection<String> changedPaths )
+    {
+        PathSet pathSet = context.getPathSet();
+        File basedir = pathSet.getBasedir();
+
+        Collection<String> pathnames = new TreeSet<String>( changedPaths );
+        for ( File input : context.getReferencingInputs() )
+        {
+            String pathname = FileUtils.relativize( input, basedir );
+            if ( pathname != null )
+            {
+                pathnames.add( pathname );
+            }
+        }
+
+        Collection<Path> dirtyPaths = new ArrayList<Path>();
+
+        for ( String pathname : pathnames )
+        {
+            if ( !context.isSelected( pathname ) )
+            {
+                continue;
+            }
+
+            File file = new File( basedir, pathname );
+            if ( file.isDirectory() )
+            {
+                if ( pathSet.isIncludingDirectories() && context.isProcessingRequired( file, true ) )
+                {
+                    dirtyPaths.add( new Path( pathname ) );
+                }
+            }
+            else if ( file.exists() )
+            {
+                if ( pathSet.isIncludingFiles() && context.isProcessingRequired( file, false ) )
+                {
+                    dirtyPaths.add( new Path( pathname ) );
+                }
+            }
+            else
+            {
+                FileState state = context.getInputState( file );
+                if ( state != null
+                    && ( state.isDirectory() ? pathSet.isIncludingDirectories() : pathSet.isIncludingFiles() ) )
+                {
+                    dirtyPaths.add( new Path( pathname, true ) );
+                }
+            }
+        }
+
+        return dirtyPaths;
+    }
+
+    protected Collection<File> resolveOutputs( PathSet pathSet )
+    {
+        long start = System.nanoTime();
+
+        final Collection<File> selectedFiles = new HashSet<File>( 128 );
+
+        Selector selector = getSelector( pathSet );
 
         DirectoryScan scan =
             new DirectoryScan( pathSet.getBasedir(), selector, pathSet.isIncludingDirectories(),
-                               pathSet.isIncludingFiles() )
+                               pathSet.isIncludingFiles(), getScanExecutor(), symlinkPolicy )
             {
                 @Override
                 protected void onItem( String pathname, File file )
@@ -309,6 +1369,8 @@ public class DefaultBuildContextManager
             };
         scan.run();
 
+        statistics.pathsScanned( start );
+
         return selectedFiles;
     }
 
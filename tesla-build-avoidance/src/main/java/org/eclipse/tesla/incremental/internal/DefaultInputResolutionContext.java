@@ -30,15 +30,24 @@ class DefaultInputResolutionContext
 
     private final BuildState buildState;
 
+    private final ScanCache scanCache;
+
     public DefaultInputResolutionContext( BuildContext buildContext, PathSet pathSet, boolean fullBuild,
                                           BuildState buildState )
+    {
+        this( buildContext, pathSet, fullBuild, buildState, null, null );
+    }
+
+    public DefaultInputResolutionContext( BuildContext buildContext, PathSet pathSet, boolean fullBuild,
+                                          BuildState buildState, ScanCache scanCache, Selector selector )
     {
         this.outputDirectory = buildContext.getOutputDirectory();
         this.pathSet = pathSet;
         this.fullBuild = fullBuild;
         this.buildState = buildState;
+        this.scanCache = scanCache;
 
-        selector = new GlobSelector( pathSet );
+        this.selector = ( selector != null ) ? selector : SelectorCache.newSelector( pathSet );
     }
 
     public File getOutputDirectory()
@@ -56,6 +65,11 @@ class DefaultInputResolutionContext
         return pathSet;
     }
 
+    public Selector getSelector()
+    {
+        return selector;
+    }
+
     public boolean isSelected( String pathname )
     {
         return selector.isSelected( pathname );
@@ -94,8 +108,13 @@ class DefaultInputResolutionContext
                 }
 
                 File file = entry.getKey();
+                if ( existingInputs.contains( file ) )
+                {
+                    continue;
+                }
+
                 String pathname = FileUtils.relativize( file, basedir );
-                if ( pathname != null && selector.isSelected( pathname ) && !existingInputs.contains( file ) )
+                if ( pathname != null && selector.isSelected( pathname ) )
                 {
                     pathnames.add( pathname );
                 }
@@ -160,4 +179,62 @@ class DefaultInputResolutionContext
         return buildState.isProcessingRequired( input );
     }
 
+    public boolean isProcessingRequired( File input, boolean directory )
+    {
+        if ( fullBuild )
+        {
+            return true;
+        }
+        return buildState.isProcessingRequired( input, directory );
+    }
+
+    public DirectoryListing listDirectory( File directory )
+    {
+        if ( scanCache != null )
+        {
+            return scanCache.list( directory, buildState );
+        }
+        return buildState.listDirectory( directory );
+    }
+
+    public FileState getInputState( File input )
+    {
+        return buildState.getInputState( input );
+    }
+
+    public Collection<File> getReferencingInputs()
+    {
+        return buildState.getReferencingInputs();
+    }
+
+    public boolean isScanned()
+    {
+        return buildState.isScanned( pathSet );
+    }
+
+    public void setScanned()
+    {
+        buildState.setScanned( pathSet );
+    }
+
+    public ScanSummary getScanSummary()
+    {
+        return buildState.getScanSummary( pathSet );
+    }
+
+    public void setScanSummary( ScanSummary summary )
+    {
+        buildState.setScanSummary( pathSet, summary );
+    }
+
+    public long getJournalPosition()
+    {
+        return buildState.getJournalPosition( pathSet );
+    }
+
+    public void setJournalPosition( long position )
+    {
+        buildState.setJournalPosition( pathSet, position );
+    }
+
 }
@@ -0,0 +1,154 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The names and kinds of the entries of a directory, sorted by name. A directory's timestamp changes whenever an entry
+ * is added, removed or renamed so a listing can be reused as long as the directory timestamp is unchanged. To guard
+ * against modifications that happen within the granularity of the file system timestamps, a listing taken shortly
+ * after the last modification of its directory is never reused.
+ */
+class DirectoryListing
+    implements Serializable
+{
+
+    private static final long serialVersionUID = -3291738441296524710L;
+
+    // conservative timestamp granularity, some file systems only provide two seconds
+    private static final long RACY_INTERVAL = 2000;
+
+    private final long timestamp;
+
+    private final long listed;
+
+    private final String[] names;
+
+    private final boolean[] directories;
+
+    // the indexes of the subdirectories, derived from the kinds of the entries on first use
+    private transient volatile int[] directoryIndexes;
+
+    DirectoryListing( long timestamp, long listed, String[] names, boolean[] directories )
+    {
+        this.timestamp = timestamp;
+        this.listed = listed;
+        this.names = names;
+        this.directories = directories;
+    }
+
+    public static DirectoryListing read( File dir )
+    {
+        long listed = System.currentTimeMillis();
+        long timestamp = dir.lastModified();
+
+        String[] names = dir.list();
+        if ( names == null )
+        {
+            return null;
+        }
+        Arrays.sort( names );
+
+        boolean[] directories = new boolean[names.length];
+        for ( int i = 0; i < names.length; i++ )
+        {
+            directories[i] = new File( dir, names[i] ).isDirectory();
+        }
+
+        return new DirectoryListing( timestamp, listed, names, directories );
+    }
+
+    public String[] getNames()
+    {
+        return names;
+    }
+
+    public boolean isDirectory( int index )
+    {
+        return directories[index];
+    }
+
+    /**
+     * Gets the indexes of the entries that denote directories, in ascending order. A scan that only reports directories
+     * iterates over these instead of all entries, which matters for directories holding many files.
+     * 
+     * @return The (read-only) indexes of the subdirectories, never {@code null}.
+     */
+    public int[] getDirectoryIndexes()
+    {
+        int[] indexes = directoryIndexes;
+        if ( indexes == null )
+        {
+            indexes = new int[getDirectoryCount( directories )];
+            for ( int i = 0, j = 0; i < directories.length; i++ )
+            {
+                if ( directories[i] )
+                {
+                    indexes[j++] = i;
+                }
+            }
+            directoryIndexes = indexes;
+        }
+        return indexes;
+    }
+
+    private static int getDirectoryCount( boolean[] directories )
+    {
+        int count = 0;
+        for ( boolean directory : directories )
+        {
+            if ( directory )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getDirectoryCount()
+    {
+        return getDirectoryIndexes().length;
+    }
+
+    public boolean contains( String name )
+    {
+        return Arrays.binarySearch( names, name ) >= 0;
+    }
+
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Checks whether the listing was taken sufficiently long after the last modification of its directory, i.e. any
+     * later modification is guaranteed to change the directory timestamp.
+     * 
+     * @return {@code true} if the listing can be validated by the directory timestamp, {@code false} otherwise.
+     */
+    public boolean isSettled()
+    {
+        return timestamp != 0 && listed - timestamp > RACY_INTERVAL;
+    }
+
+    public boolean isCurrent( File dir )
+    {
+        return isSettled() && dir.lastModified() == timestamp;
+    }
+
+    @Override
+    public String toString()
+    {
+        return names.length + " entries, " + timestamp;
+    }
+
+}
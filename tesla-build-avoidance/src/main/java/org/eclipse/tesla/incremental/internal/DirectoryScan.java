@@ -9,6 +9,10 @@ package org.eclipse.tesla.incremental.internal;
  *******************************************************************************/
 
 import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 class DirectoryScan
 {
@@ -21,55 +25,538 @@ class DirectoryScan
 
     private final boolean includeFiles;
 
+    private final Executor executor;
+
+    private final SymlinkPolicy symlinks;
+
+    // the canonical base directory and the canonical targets of the links followed so far, only used to check links
+    private File canonicalBasedir;
+
+    private Set<File> followedLinks;
+
+    // segments of the relative path of the current entry, only turned into a string if the entry gets reported
+    private String[] segments = new String[16];
+
+    private char[] buffer = new char[256];
+
     public DirectoryScan( File basedir, Selector selector, boolean includeDirectories, boolean includeFiles )
+    {
+        this( basedir, selector, includeDirectories, includeFiles, null );
+    }
+
+    public DirectoryScan( File basedir, Selector selector, boolean includeDirectories, boolean includeFiles,
+                          Executor executor )
+    {
+        this( basedir, selector, includeDirectories, includeFiles, executor, null );
+    }
+
+    /**
+     * Creates a new scan that lists the directories of the tree in parallel using the specified executor. The selector
+     * needs to be thread-safe in this case. The callbacks are still invoked by the thread calling {@link #run()}, with
+     * the entries of each directory sorted by name.
+     * 
+     * @param basedir The base directory to scan, must not be {@code null}.
+     * @param selector The selector for the paths to report, must not be {@code null}.
+     * @param includeDirectories Whether to report directories.
+     * @param includeFiles Whether to report files.
+     * @param executor The executor used to list directories, may be {@code null} to scan sequentially.
+     * @param symlinks How to deal with symbolic links to directories, may be {@code null} to follow them without
+     *            checks.
+     */
+    public DirectoryScan( File basedir, Selector selector, boolean includeDirectories, boolean includeFiles,
+                          Executor executor, SymlinkPolicy symlinks )
     {
         this.basedir = basedir;
         this.selector = selector;
         this.includeDirectories = includeDirectories;
         this.includeFiles = includeFiles;
+        this.executor = executor;
+        this.symlinks = ( symlinks != null ) ? symlinks : SymlinkPolicy.FOLLOW;
     }
 
     public void run()
     {
-        String[] children = basedir.list();
-        if ( children != null )
+        if ( symlinks != SymlinkPolicy.FOLLOW )
+        {
+            canonicalBasedir = FileUtils.normalize( basedir );
+            followedLinks = new HashSet<File>();
+        }
+
+        String[][] literalPaths = selector.getLiteralPaths();
+        if ( literalPaths != null )
+        {
+            for ( String[] literalPath : literalPaths )
+            {
+                check( literalPath );
+            }
+            return;
+        }
+
+        String[][] roots = selector.getRoots();
+        if ( roots == null )
+        {
+            scan( basedir, new String[0], selector.getInitialState() );
+            return;
+        }
+
+        for ( String[] root : roots )
+        {
+            File dir = new File( basedir, pathname( root, root.length ) );
+            if ( dir.isFile() )
+            {
+                // a full walk would select a file in place of the root directory, just like a literal path
+                check( root );
+                continue;
+            }
+
+            Object state = selector.getInitialState();
+            for ( String segment : root )
+            {
+                state = selector.descend( state, segment );
+            }
+            if ( selector.isAncestorOfPotentiallySelected( state ) )
+            {
+                scan( dir, root, state );
+            }
+        }
+    }
+
+    private void check( String[] path )
+    {
+        int count = path.length;
+        if ( !selector.isSelected( path, count ) )
+        {
+            return;
+        }
+
+        String pathname = pathname( path, count );
+        File file = new File( basedir, pathname );
+        if ( file.isDirectory() )
+        {
+            if ( includeDirectories )
+            {
+                onDirectory( pathname, file );
+            }
+        }
+        else if ( includeFiles && file.exists() )
+        {
+            onFile( pathname, file );
+        }
+    }
+
+    private void scan( File dir, String[] root, Object state )
+    {
+        DirectoryListing listing = list( dir );
+        if ( listing != null )
+        {
+            int depth = root.length;
+            String[] segments = segments( depth + 1 );
+            System.arraycopy( root, 0, segments, 0, depth );
+
+            if ( includeDirectories && selector.isSelected( segments, depth ) )
+            {
+                onDirectory( ( depth > 0 ) ? pathname( segments, depth ) : "", dir );
+            }
+            File canonical = ( symlinks != SymlinkPolicy.FOLLOW ) ? FileUtils.normalize( dir ) : null;
+            if ( executor != null )
+            {
+                scanParallel( dir, root, state, canonical, listing );
+            }
+            else
+            {
+                scan( dir, depth, state, canonical, listing );
+            }
+        }
+    }
+
+    /**
+     * Lists the contents of the specified directory. For a parallel scan, this method is called concurrently by the
+     * worker threads.
+     * 
+     * @param dir The directory to list, must not be {@code null}.
+     * @return The directory contents or {@code null} if the file does not denote a readable directory.
+     */
+    protected DirectoryListing list( File dir )
+    {
+        return DirectoryListing.read( dir );
+    }
+
+    /**
+     * Tells whether the specified subdirectory is a symbolic link, by comparing its canonical path with the path it
+     * would have as an ordinary directory.
+     * 
+     * @param canonicalDir The canonical path of the parent directory, must not be {@code null}.
+     * @param name The name of the subdirectory, must not be {@code null}.
+     * @param canonical The canonical path of the subdirectory, must not be {@code null}.
+     * @return {@code true} if the subdirectory is a link, {@code false} otherwise.
+     */
+    private static boolean isLink( File canonicalDir, String name, File canonical )
+    {
+        return !canonical.equals( new File( canonicalDir, name ) );
+    }
+
+    /**
+     * Decides whether to scan the contents of a link to a directory, see {@link SymlinkPolicy#FOLLOW_ONCE}. Links are
+     * decided in scan order, also during a parallel scan, such that the same links get followed each time.
+     * 
+     * @param target The canonical path of the link target, must not be {@code null}.
+     * @param canonicalDir The canonical path of the directory containing the link, must not be {@code null}.
+     * @return {@code true} if the link is to be followed, {@code false} otherwise.
+     */
+    private boolean follow( File target, File canonicalDir )
+    {
+        if ( symlinks != SymlinkPolicy.FOLLOW_ONCE )
+        {
+            return false;
+        }
+        if ( isAncestorOrSelf( canonicalBasedir, target ) || isAncestorOrSelf( target, canonicalDir ) )
+        {
+            // already reached via the real paths or a cycle
+            return false;
+        }
+        return followedLinks.add( target );
+    }
+
+    private static boolean isAncestorOrSelf( File ancestor, File file )
+    {
+        String ancestorPath = ancestor.getPath();
+        String path = file.getPath();
+        return path.startsWith( ancestorPath )
+            && ( path.length() == ancestorPath.length() || path.charAt( ancestorPath.length() ) == File.separatorChar
+                || ancestorPath.endsWith( File.separator ) );
+    }
+
+    private void scan( File dir, int depth, Object state, File canonicalDir, DirectoryListing listing )
+    {
+        int count = depth + 1;
+        String[] names = listing.getNames();
+        // without files to report, only the subdirectories are of interest
+        int[] indexes = includeFiles ? null : listing.getDirectoryIndexes();
+        for ( int k = 0, n = ( indexes != null ) ? indexes.length : names.length; k < n; k++ )
+        {
+            int i = ( indexes != null ) ? indexes[k] : k;
+            String[] segments = segments( count );
+            segments[depth] = names[i];
+
+            if ( listing.isDirectory( i ) )
+            {
+                File file = new File( dir, names[i] );
+                File canonical = null;
+                boolean link = false;
+                if ( canonicalDir != null )
+                {
+                    canonical = FileUtils.normalize( file );
+                    link = isLink( canonicalDir, names[i], canonical );
+                    if ( link && symlinks == SymlinkPolicy.SKIP )
+                    {
+                        continue;
+                    }
+                }
+                if ( includeDirectories && selector.isSelected( state, names[i] ) )
+                {
+                    onDirectory( pathname( segments, count ), file );
+                }
+                Object child = selector.descend( state, names[i] );
+                if ( selector.isAncestorOfPotentiallySelected( child )
+                    && ( !link || follow( canonical, canonicalDir ) ) )
+                {
+                    DirectoryListing children = list( file );
+                    if ( children != null )
+                    {
+                        scan( file, count, child, canonical, children );
+                    }
+                }
+            }
+            else
+            {
+                if ( selector.isSelected( state, names[i] ) )
+                {
+                    onFile( pathname( segments, count ), new File( dir, names[i] ) );
+                }
+            }
+        }
+    }
+
+    private String[] segments( int count )
+    {
+        if ( segments.length < count )
+        {
+            String[] tmp = new String[Math.max( count, segments.length * 2 )];
+            System.arraycopy( segments, 0, tmp, 0, segments.length );
+            segments = tmp;
+        }
+        return segments;
+    }
+
+    private String pathname( String[] segments, int count )
+    {
+        int length = count - 1;
+        for ( int i = 0; i < count; i++ )
+        {
+            length += segments[i].length();
+        }
+        if ( buffer.length < length )
+        {
+            buffer = new char[Math.max( length, buffer.length * 2 )];
+        }
+
+        int pos = 0;
+        for ( int i = 0; i < count; i++ )
         {
-            if ( includeDirectories && selector.isSelected( "" ) )
+            if ( i > 0 )
             {
-                onDirectory( "", basedir );
+                buffer[pos++] = File.separatorChar;
             }
-            scan( basedir, "", children );
+            String segment = segments[i];
+            segment.getChars( 0, segment.length(), buffer, pos );
+            pos += segment.length();
         }
+
+        return new String( buffer, 0, length );
+    }
+
+    private void scanParallel( File dir, String[] segments, Object state, File canonical, DirectoryListing listing )
+    {
+        Node root = new Node( dir, segments, state, canonical, false );
+        root.listing = listing;
+        walk( root );
     }
 
-    private void scan( File dir, String pathPrefix, String[] files )
+    private void walk( Node root )
     {
-        for ( int i = 0; i < files.length; i++ )
+        Walk walk = new Walk();
+        walk.submit( root );
+        walk.await();
+        report( root );
+    }
+
+    private void report( Node node )
+    {
+        if ( node.listing == null )
         {
-            String pathname = pathPrefix + files[i];
-            File file = new File( dir, files[i] );
+            return;
+        }
+
+        int depth = node.segments.length;
+        int count = depth + 1;
+        System.arraycopy( node.segments, 0, segments( count ), 0, depth );
 
-            String[] children = file.list();
+        String[] names = node.listing.getNames();
+        int[] indexes = includeFiles ? null : node.listing.getDirectoryIndexes();
+        for ( int k = 0, n = ( indexes != null ) ? indexes.length : names.length, child = 0; k < n; k++ )
+        {
+            int i = ( indexes != null ) ? indexes[k] : k;
+            String[] segments = segments( count );
+            segments[depth] = names[i];
 
-            if ( children == null || ( children.length <= 0 && file.isFile() ) )
+            if ( node.listing.isDirectory( i ) )
             {
-                if ( includeFiles && selector.isSelected( pathname ) )
+                Node childNode = node.children[child++];
+                if ( childNode != null && childNode.link && symlinks == SymlinkPolicy.SKIP )
+                {
+                    continue;
+                }
+                if ( includeDirectories && selector.isSelected( node.state, names[i] ) )
+                {
+                    onDirectory( pathname( segments, count ), new File( node.dir, names[i] ) );
+                }
+                if ( childNode == null )
+                {
+                    continue;
+                }
+                if ( !childNode.link )
+                {
+                    report( childNode );
+                }
+                else if ( selector.isAncestorOfPotentiallySelected( childNode.state )
+                    && follow( childNode.canonical, node.canonical ) )
                 {
-                    onFile( pathname, file );
+                    walk( childNode );
                 }
             }
             else
             {
-                if ( includeDirectories && selector.isSelected( pathname ) )
+                if ( selector.isSelected( node.state, names[i] ) )
+                {
+                    onFile( pathname( segments, count ), new File( node.dir, names[i] ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * A directory of the tree as gathered by a worker thread.
+     */
+    static final class Node
+    {
+
+        final File dir;
+
+        final String[] segments;
+
+        // the selector state for the directory
+        final Object state;
+
+        // the canonical path of the directory, only determined when checking links
+        final File canonical;
+
+        // whether the directory is a link, which is only scanned once the report decided to follow it
+        final boolean link;
+
+        DirectoryListing listing;
+
+        // the subdirectories in the order of the listing, null for those not scanned
+        Node[] children;
+
+        Node( File dir, String[] segments, Object state, File canonical, boolean link )
+        {
+            this.dir = dir;
+            this.segments = segments;
+            this.state = state;
+            this.canonical = canonical;
+            this.link = link;
+        }
+
+    }
+
+    /**
+     * Tracks the outstanding directories of a parallel scan. Directories never wait on each other, they merely submit
+     * their subdirectories, so the scan cannot starve a bounded executor.
+     */
+    final class Walk
+    {
+
+        private int pending;
+
+        private RuntimeException failure;
+
+        void submit( final Node node )
+        {
+            synchronized ( this )
+            {
+                pending++;
+            }
+
+            Runnable task = new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        expand( node );
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        failed( e );
+                    }
+                    catch ( Error e )
+                    {
+                        failed( new IllegalStateException( "Could not scan " + node.dir, e ) );
+                    }
+                    finally
+                    {
+                        done();
+                    }
+                }
+            };
+
+            try
+            {
+                executor.execute( task );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                task.run();
+            }
+        }
+
+        private void expand( Node node )
+        {
+            if ( node.listing == null )
+            {
+                node.listing = list( node.dir );
+                if ( node.listing == null )
+                {
+                    return;
+                }
+            }
+
+            String[] names = node.listing.getNames();
+            int[] indexes = node.listing.getDirectoryIndexes();
+            node.children = new Node[indexes.length];
+
+            int depth = node.segments.length;
+            String[] segments = new String[depth + 1];
+            System.arraycopy( node.segments, 0, segments, 0, depth );
+
+            for ( int j = 0; j < indexes.length; j++ )
+            {
+                String name = names[indexes[j]];
+                segments[depth] = name;
+                File dir = new File( node.dir, name );
+                File canonical = null;
+                boolean link = false;
+                if ( node.canonical != null )
+                {
+                    canonical = FileUtils.normalize( dir );
+                    link = isLink( node.canonical, name, canonical );
+                }
+                Object state = selector.descend( node.state, name );
+                if ( link )
                 {
-                    onDirectory( pathname, file );
+                    // the report decides about links, in scan order
+                    node.children[j] = new Node( dir, segments.clone(), state, canonical, true );
                 }
-                if ( selector.isAncestorOfPotentiallySelected( pathname ) )
+                else if ( selector.isAncestorOfPotentiallySelected( state ) )
                 {
-                    scan( file, pathname + File.separatorChar, children );
+                    node.children[j] = new Node( dir, segments.clone(), state, canonical, false );
+                    submit( node.children[j] );
                 }
             }
         }
+
+        private synchronized void failed( RuntimeException e )
+        {
+            if ( failure == null )
+            {
+                failure = e;
+            }
+        }
+
+        private synchronized void done()
+        {
+            pending--;
+            if ( pending <= 0 )
+            {
+                notifyAll();
+            }
+        }
+
+        synchronized void await()
+        {
+            boolean interrupted = false;
+            while ( pending > 0 )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    // the directories complete on their own, keep waiting and restore the flag afterwards
+                    interrupted = true;
+                }
+            }
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+            if ( failure != null )
+            {
+                throw failure;
+            }
+        }
+
     }
 
     protected void onFile( String pathname, File file )
@@ -0,0 +1,199 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.tesla.incremental.ChangeSource;
+
+/**
+ * A change source that reads the changed paths from a text file with one path per line, e.g. as produced by
+ * {@code git diff --name-only --no-renames <base>}. Renames need to be reported as deletion plus addition, otherwise
+ * the outputs of the old path go unnoticed. Relative paths are resolved against a root directory which defaults to the
+ * current directory, matching the output of git when invoked from the top of the work tree. Each line is taken as a
+ * path verbatim, including leading and trailing spaces, except for paths enclosed in double quotes which are unquoted
+ * like git does for paths with special characters, i.e. backslash escapes and octal escapes of UTF-8 bytes are
+ * decoded. Empty lines are ignored. The file is read upon first use and read again once its timestamp or size
+ * changed, if it cannot be read, all input directories are scanned as usual.
+ */
+public class FileListChangeSource
+    implements ChangeSource
+{
+
+    private final File listFile;
+
+    private final File root;
+
+    private List<File> changedFiles;
+
+    private long timestamp;
+
+    private long size;
+
+    public FileListChangeSource( File listFile )
+    {
+        this( listFile, null );
+    }
+
+    public FileListChangeSource( File listFile, File root )
+    {
+        if ( listFile == null )
+        {
+            throw new IllegalArgumentException( "change list not specified" );
+        }
+        this.listFile = listFile.getAbsoluteFile();
+        this.root = ( root != null ) ? root.getAbsoluteFile() : new File( "" ).getAbsoluteFile();
+    }
+
+    public synchronized Collection<String> getChangedPaths( File basedir )
+    {
+        long timestamp = listFile.lastModified();
+        long size = listFile.length();
+        if ( changedFiles == null || timestamp != this.timestamp || size != this.size )
+        {
+            try
+            {
+                changedFiles = read();
+                this.timestamp = timestamp;
+                this.size = size;
+            }
+            catch ( IOException e )
+            {
+                changedFiles = null;
+                return null;
+            }
+        }
+
+        Collection<String> pathnames = new ArrayList<String>();
+        for ( File file : changedFiles )
+        {
+            String pathname = FileUtils.relativize( file, basedir );
+            if ( pathname != null && pathname.length() > 0 )
+            {
+                pathnames.add( pathname );
+            }
+        }
+        return pathnames;
+    }
+
+    private List<File> read()
+        throws IOException
+    {
+        List<File> files = new ArrayList<File>();
+
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( listFile ), "UTF-8" ) );
+        try
+        {
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( line.length() > 0 )
+                {
+                    files.add( FileUtils.resolve( new File( unquote( line ) ), root ) );
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return files;
+    }
+
+    /**
+     * Decodes a path quoted by git, i.e. a path enclosed in double quotes that uses C-style escapes for special
+     * characters and octal escapes for the bytes of non-ASCII characters.
+     * 
+     * @param line The line to decode, must not be {@code null}.
+     * @return The decoded path or the line itself if it is not quoted, never {@code null}.
+     */
+    static String unquote( String line )
+        throws IOException
+    {
+        if ( line.length() < 2 || line.charAt( 0 ) != '"' || line.charAt( line.length() - 1 ) != '"' )
+        {
+            return line;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( line.length() );
+        for ( int i = 1, n = line.length() - 1; i < n; i++ )
+        {
+            char c = line.charAt( i );
+            if ( c != '\\' || i + 1 >= n )
+            {
+                byte[] utf8 = String.valueOf( c ).getBytes( "UTF-8" );
+                if ( Character.isHighSurrogate( c ) && i + 1 < n )
+                {
+                    utf8 = line.substring( i, i + 2 ).getBytes( "UTF-8" );
+                    i++;
+                }
+                bytes.write( utf8, 0, utf8.length );
+                continue;
+            }
+
+            c = line.charAt( ++i );
+            if ( c >= '0' && c <= '7' )
+            {
+                int value = 0;
+                for ( int digits = 0; digits < 3 && i < n && line.charAt( i ) >= '0' && line.charAt( i ) <= '7';
+                      digits++ )
+                {
+                    value = value * 8 + ( line.charAt( i++ ) - '0' );
+                }
+                i--;
+                bytes.write( value );
+                continue;
+            }
+            switch ( c )
+            {
+                case 'a':
+                    bytes.write( 7 );
+                    break;
+                case 'b':
+                    bytes.write( '\b' );
+                    break;
+                case 't':
+                    bytes.write( '\t' );
+                    break;
+                case 'n':
+                    bytes.write( '\n' );
+                    break;
+                case 'v':
+                    bytes.write( 11 );
+                    break;
+                case 'f':
+                    bytes.write( '\f' );
+                    break;
+                case 'r':
+                    bytes.write( '\r' );
+                    break;
+                default:
+                    // backslash, double quote and anything else stand for themselves
+                    bytes.write( c );
+                    break;
+            }
+        }
+        return new String( bytes.toByteArray(), "UTF-8" );
+    }
+
+    @Override
+    public String toString()
+    {
+        return listFile.getPath();
+    }
+
+}
@@ -10,6 +10,7 @@ package org.eclipse.tesla.incremental.internal;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.Arrays;
 
 class FileState
     implements Serializable
@@ -23,7 +24,15 @@ class FileState
 
     private final boolean directory;
 
+    // identity of the file contents like a git blob id, may be null if unknown
+    private final byte[] contentId;
+
     public FileState( File file )
+    {
+        this( file, null );
+    }
+
+    public FileState( File file, byte[] contentId )
     {
         if ( file == null )
         {
@@ -32,6 +41,15 @@ class FileState
         timestamp = file.lastModified();
         size = file.length();
         directory = file.isDirectory();
+        this.contentId = contentId;
+    }
+
+    public FileState( long timestamp, long size, boolean directory )
+    {
+        this.timestamp = timestamp;
+        this.size = size;
+        this.directory = directory;
+        this.contentId = null;
     }
 
     public long getTimestamp()
@@ -49,6 +67,11 @@ class FileState
         return directory;
     }
 
+    public byte[] getContentId()
+    {
+        return contentId;
+    }
+
     @Override
     public boolean equals( Object obj )
     {
@@ -61,7 +84,8 @@ class FileState
             return false;
         }
         FileState that = (FileState) obj;
-        return timestamp == that.timestamp && size == that.size && directory == that.directory;
+        return timestamp == that.timestamp && size == that.size && directory == that.directory
+            && Arrays.equals( contentId, that.contentId );
     }
 
     @Override
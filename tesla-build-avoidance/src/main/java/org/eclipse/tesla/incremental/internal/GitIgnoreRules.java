@@ -0,0 +1,408 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The compiled rules of a {@code .gitignore} file. Rules without a slash match the name of a path at any depth, all
+ * other rules are anchored at the directory of the ignore file. Rules support the wildcards '*', '?' and "**" as well
+ * as character classes like "[a-z]" and negation via a leading '!'. As with git, the last matching rule decides.
+ */
+final class GitIgnoreRules
+{
+
+    private static final String DEEP_TREE_MATCH = "**";
+
+    // the granularity of file timestamps on common file systems, edits within this interval keep the timestamp
+    private static final long RACY_INTERVAL = 2000;
+
+    private final File file;
+
+    private final long timestamp;
+
+    private final long size;
+
+    private final long loaded;
+
+    // the rules in reverse order, such that the first match decides
+    private final Rule[] rules;
+
+    GitIgnoreRules( File file, long timestamp, long size, long loaded, List<String> lines, boolean caseSensitive )
+    {
+        this.file = file;
+        this.timestamp = timestamp;
+        this.size = size;
+        this.loaded = loaded;
+
+        List<Rule> rules = new ArrayList<Rule>();
+        for ( String line : lines )
+        {
+            Rule rule = Rule.parse( line, caseSensitive );
+            if ( rule != null )
+            {
+                rules.add( 0, rule );
+            }
+        }
+        this.rules = rules.toArray( new Rule[rules.size()] );
+    }
+
+    /**
+     * Reads the rules from the specified ignore file.
+     * 
+     * @param file The ignore file to read, must not be {@code null}.
+     * @param caseSensitive Whether names are matched case-sensitively.
+     * @return The rules, never {@code null}.
+     * @throws IOException If the file could not be read.
+     */
+    public static GitIgnoreRules load( File file, boolean caseSensitive )
+        throws IOException
+    {
+        long loaded = System.currentTimeMillis();
+        long timestamp = file.lastModified();
+        long size = file.length();
+
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try
+        {
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                lines.add( line );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        return new GitIgnoreRules( file, timestamp, size, loaded, lines, caseSensitive );
+    }
+
+    /**
+     * Creates rules without any entries for an ignore file that could not be read, to avoid reading it again before it
+     * changes.
+     */
+    public static GitIgnoreRules empty( File file )
+    {
+        return new GitIgnoreRules( file, file.lastModified(), file.length(), System.currentTimeMillis(),
+                                   new ArrayList<String>(), false );
+    }
+
+    /**
+     * Tells whether the ignore file has changed since these rules were read from it. Rules read shortly after the last
+     * modification of the file are never trusted since a later edit of the same size might not change the timestamp.
+     * 
+     * @param timestamp The current timestamp of the ignore file.
+     * @return {@code true} if the rules need to be read again, {@code false} otherwise.
+     */
+    public boolean isStale( long timestamp )
+    {
+        return timestamp != this.timestamp || file.length() != size || loaded - timestamp <= RACY_INTERVAL;
+    }
+
+    public boolean isEmpty()
+    {
+        return rules.length <= 0;
+    }
+
+    /**
+     * Matches the specified path against these rules.
+     * 
+     * @param dirs The segments of the parent directory of the path, must not be {@code null}.
+     * @param from The index of the first segment that is relative to the directory of the ignore file.
+     * @param to The number of leading segments that make up the parent directory.
+     * @param name The last segment of the path, must not be {@code null}.
+     * @param directory Whether the path denotes a directory.
+     * @return {@link Boolean#TRUE} if the path is ignored, {@link Boolean#FALSE} if the path is explicitly not ignored
+     *         or {@code null} if no rule matches the path.
+     */
+    public Boolean match( String[] dirs, int from, int to, String name, boolean directory )
+    {
+        for ( Rule rule : rules )
+        {
+            if ( ( directory || !rule.directoryOnly ) && rule.matches( dirs, from, to, name ) )
+            {
+                return Boolean.valueOf( !rule.negated );
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return file + ", " + rules.length + " rules";
+    }
+
+    static final class Rule
+    {
+
+        final String[] tokens;
+
+        final boolean anchored;
+
+        final boolean negated;
+
+        final boolean directoryOnly;
+
+        final boolean caseSensitive;
+
+        private Rule( String[] tokens, boolean anchored, boolean negated, boolean directoryOnly, boolean caseSensitive )
+        {
+            this.tokens = tokens;
+            this.anchored = anchored;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.caseSensitive = caseSensitive;
+        }
+
+        static Rule parse( String line, boolean caseSensitive )
+        {
+            // trailing spaces are ignored unless escaped
+            int end = line.length();
+            while ( end > 0 && line.charAt( end - 1 ) == ' ' && ( end < 2 || line.charAt( end - 2 ) != '\\' ) )
+            {
+                end--;
+            }
+            String pattern = line.substring( 0, end );
+            if ( pattern.length() <= 0 || pattern.charAt( 0 ) == '#' )
+            {
+                return null;
+            }
+
+            boolean negated = pattern.charAt( 0 ) == '!';
+            if ( negated )
+            {
+                pattern = pattern.substring( 1 );
+            }
+
+            boolean directoryOnly = pattern.endsWith( "/" );
+            if ( directoryOnly )
+            {
+                pattern = pattern.substring( 0, pattern.length() - 1 );
+            }
+
+            boolean anchored = pattern.indexOf( '/' ) >= 0;
+            if ( pattern.startsWith( "/" ) )
+            {
+                pattern = pattern.substring( 1 );
+            }
+            if ( pattern.length() <= 0 )
+            {
+                return null;
+            }
+
+            String[] tokens = pattern.split( "/+" );
+            for ( int i = 0; i < tokens.length; i++ )
+            {
+                tokens[i] = DEEP_TREE_MATCH.equals( tokens[i] ) ? DEEP_TREE_MATCH : tokens[i];
+            }
+
+            return new Rule( tokens, anchored, negated, directoryOnly, caseSensitive );
+        }
+
+        boolean matches( String[] dirs, int from, int to, String name )
+        {
+            if ( !anchored )
+            {
+                return matchesSegment( tokens[0], name, caseSensitive );
+            }
+            return matches( 0, dirs, from, to, name );
+        }
+
+        private boolean matches( int index, String[] dirs, int pos, int to, String name )
+        {
+            // the path consists of the segments dirs[from..to) followed by the name, i.e. ends at position to + 1
+            for ( ; index < tokens.length; index++, pos++ )
+            {
+                String token = tokens[index];
+                if ( token == DEEP_TREE_MATCH )
+                {
+                    if ( index == tokens.length - 1 )
+                    {
+                        // a trailing "/**" matches everything inside a directory but not the directory itself
+                        return pos <= to;
+                    }
+                    for ( int skip = pos; skip <= to; skip++ )
+                    {
+                        if ( matches( index + 1, dirs, skip, to, name ) )
+                        {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                if ( pos > to || !matchesSegment( token, ( pos < to ) ? dirs[pos] : name, caseSensitive ) )
+                {
+                    return false;
+                }
+            }
+            return pos == to + 1;
+        }
+
+    }
+
+    /**
+     * Matches a path segment against a pattern using the wildcard syntax of git, i.e. besides '*' and '?', the pattern
+     * may use character classes like "[a-z]" or "[!0-9]" and a backslash to escape the next character.
+     * 
+     * @param pattern The pattern, must not be {@code null}.
+     * @param name The segment to match, must not be {@code null}.
+     * @param caseSensitive Whether characters are compared case-sensitively.
+     * @return {@code true} if the segment matches the pattern, {@code false} otherwise.
+     */
+    static boolean matchesSegment( String pattern, String name, boolean caseSensitive )
+    {
+        int patLength = pattern.length();
+        int strLength = name.length();
+        int pat = 0;
+        int str = 0;
+        int starPat = -1;
+        int starStr = 0;
+        while ( str < strLength )
+        {
+            if ( pat < patLength && pattern.charAt( pat ) == '*' )
+            {
+                starPat = ++pat;
+                starStr = str;
+                continue;
+            }
+            if ( pat < patLength )
+            {
+                int next = matchChar( pattern, pat, name.charAt( str ), caseSensitive );
+                if ( next > 0 )
+                {
+                    pat = next;
+                    str++;
+                    continue;
+                }
+            }
+            if ( starPat < 0 )
+            {
+                return false;
+            }
+            // let the last star consume one more character and retry
+            pat = starPat;
+            str = ++starStr;
+        }
+        while ( pat < patLength && pattern.charAt( pat ) == '*' )
+        {
+            pat++;
+        }
+        return pat == patLength;
+    }
+
+    /**
+     * Matches a single character against the pattern element at the specified position.
+     * 
+     * @return The position of the next pattern element if the character matches, {@code -1} otherwise.
+     */
+    private static int matchChar( String pattern, int pos, char ch, boolean caseSensitive )
+    {
+        char pat = pattern.charAt( pos );
+        if ( pat == '?' )
+        {
+            return pos + 1;
+        }
+        if ( pat == '\\' && pos + 1 < pattern.length() )
+        {
+            return equal( pattern.charAt( pos + 1 ), ch, caseSensitive ) ? pos + 2 : -1;
+        }
+        if ( pat == '[' )
+        {
+            int end = findClassEnd( pattern, pos );
+            if ( end > 0 )
+            {
+                return matchClass( pattern, pos + 1, end, ch, caseSensitive ) ? end + 1 : -1;
+            }
+        }
+        return equal( pat, ch, caseSensitive ) ? pos + 1 : -1;
+    }
+
+    private static int findClassEnd( String pattern, int pos )
+    {
+        int i = pos + 1;
+        if ( i < pattern.length() && ( pattern.charAt( i ) == '!' || pattern.charAt( i ) == '^' ) )
+        {
+            i++;
+        }
+        // a closing bracket right at the start is part of the class
+        if ( i < pattern.length() && pattern.charAt( i ) == ']' )
+        {
+            i++;
+        }
+        for ( ; i < pattern.length(); i++ )
+        {
+            char c = pattern.charAt( i );
+            if ( c == '\\' )
+            {
+                i++;
+            }
+            else if ( c == ']' )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matchClass( String pattern, int start, int end, char ch, boolean caseSensitive )
+    {
+        boolean negated = pattern.charAt( start ) == '!' || pattern.charAt( start ) == '^';
+        int i = negated ? start + 1 : start;
+        boolean matched = false;
+        while ( i < end )
+        {
+            char lo = pattern.charAt( i );
+            if ( lo == '\\' && i + 1 < end )
+            {
+                lo = pattern.charAt( ++i );
+            }
+            i++;
+
+            char hi = lo;
+            if ( i + 1 < end && pattern.charAt( i ) == '-' )
+            {
+                hi = pattern.charAt( i + 1 );
+                if ( hi == '\\' && i + 2 < end )
+                {
+                    hi = pattern.charAt( i + 2 );
+                    i++;
+                }
+                i += 2;
+            }
+
+            if ( inRange( ch, lo, hi )
+                || ( !caseSensitive && ( inRange( Character.toUpperCase( ch ), lo, hi ) || inRange(
+                    Character.toLowerCase( ch ), lo, hi ) ) ) )
+            {
+                matched = true;
+            }
+        }
+        return matched != negated;
+    }
+
+    private static boolean inRange( char ch, char lo, char hi )
+    {
+        return lo <= ch && ch <= hi;
+    }
+
+    private static boolean equal( char pat, char ch, boolean caseSensitive )
+    {
+        return pat == ch || ( !caseSensitive && Character.toUpperCase( pat ) == Character.toUpperCase( ch ) );
+    }
+
+}
@@ -0,0 +1,321 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Narrows down the paths of another selector to those not ignored by git. The ignore rules are read from the
+ * {@code .gitignore} files of the directories along the path, starting at the root of the enclosing git work tree,
+ * and from {@code .git/info/exclude}. Rules of deeper directories take precedence and as with git, a path inside an
+ * ignored directory cannot be re-included, so a directory scan skips ignored directories without listing them. The
+ * base directory itself is never considered ignored, the rules of its ancestors only apply to the paths below it. The
+ * compiled rules of each ignore file are cached and only read again once the file changed.
+ */
+class GitIgnoreSelector
+    implements Selector
+{
+
+    private static final String IGNORE_FILE = ".gitignore";
+
+    // the state for ignored directories and their descendants
+    private static final Object IGNORED = new Object();
+
+    private final Selector selector;
+
+    private final File basedir;
+
+    private final boolean caseSensitive;
+
+    // the directory whose ignore file is the topmost one to consider, i.e. the work tree root if any
+    private final File topdir;
+
+    // the segments of the base directory relative to the top directory
+    private final String[] prefix;
+
+    // the ignore file of the repository itself, if any
+    private final File excludeFile;
+
+    // ignore file -> rules
+    private final Map<File, GitIgnoreRules> rules;
+
+    public GitIgnoreSelector( Selector selector, File basedir, boolean caseSensitive )
+    {
+        this.selector = selector;
+        this.basedir = basedir;
+        this.caseSensitive = caseSensitive;
+        this.rules = new HashMap<File, GitIgnoreRules>();
+
+        List<String> prefix = new ArrayList<String>();
+        File topdir = basedir;
+        for ( File dir = basedir; dir != null; dir = dir.getParentFile() )
+        {
+            File dotGit = new File( dir, ".git" );
+            if ( dotGit.exists() )
+            {
+                topdir = dir;
+                break;
+            }
+            else if ( dir.getParentFile() == null )
+            {
+                // not inside a work tree, consider the ignore files of the base directory and below
+                prefix.clear();
+                break;
+            }
+            prefix.add( 0, dir.getName() );
+        }
+        this.topdir = topdir;
+        this.prefix = prefix.toArray( new String[prefix.size()] );
+
+        File excludeFile = new File( topdir, ".git/info/exclude" );
+        this.excludeFile = excludeFile.isFile() ? excludeFile : null;
+    }
+
+    public Object getInitialState()
+    {
+        Scope scope = null;
+        if ( excludeFile != null )
+        {
+            scope = push( null, excludeFile, 0 );
+        }
+        State state = new State( null, topdir, new String[0], push( scope, new File( topdir, IGNORE_FILE ), 0 ) );
+        for ( String name : prefix )
+        {
+            state = enter( state, name, null );
+        }
+        return new State( selector.getInitialState(), state.dir, state.path, state.scope );
+    }
+
+    public Object descend( Object state, String name )
+    {
+        if ( state == IGNORED || isIgnored( (State) state, name, Boolean.TRUE ) )
+        {
+            return IGNORED;
+        }
+        return enter( (State) state, name, selector.descend( ( (State) state ).selector, name ) );
+    }
+
+    public boolean isSelected( Object state, String name )
+    {
+        return state != IGNORED && selector.isSelected( ( (State) state ).selector, name )
+            && !isIgnored( (State) state, name, null );
+    }
+
+    public boolean isAncestorOfPotentiallySelected( Object state )
+    {
+        return state != IGNORED && selector.isAncestorOfPotentiallySelected( ( (State) state ).selector );
+    }
+
+    public boolean isSelected( String pathname )
+    {
+        return selector.isSelected( pathname ) && !isIgnored( pathname, null );
+    }
+
+    public boolean isSelected( String[] segments, int count )
+    {
+        return selector.isSelected( segments, count ) && !isIgnored( segments, count, null );
+    }
+
+    public boolean isAncestorOfPotentiallySelected( String pathname )
+    {
+        return selector.isAncestorOfPotentiallySelected( pathname ) && !isIgnored( pathname, Boolean.TRUE );
+    }
+
+    public boolean isAncestorOfPotentiallySelected( String[] segments, int count )
+    {
+        return selector.isAncestorOfPotentiallySelected( segments, count )
+            && !isIgnored( segments, count, Boolean.TRUE );
+    }
+
+    public String[][] getLiteralPaths()
+    {
+        return selector.getLiteralPaths();
+    }
+
+    public String[][] getRoots()
+    {
+        return selector.getRoots();
+    }
+
+    private boolean isIgnored( String pathname, Boolean directory )
+    {
+        if ( pathname.startsWith( File.separator ) || new File( pathname ).isAbsolute() )
+        {
+            pathname = FileUtils.relativize( new File( pathname ), basedir );
+            if ( pathname == null )
+            {
+                return false;
+            }
+        }
+        String[] segments = SelectorUtils.tokenizePathAsArray( pathname );
+        return isIgnored( segments, segments.length, directory );
+    }
+
+    private boolean isIgnored( String[] segments, int count, Boolean directory )
+    {
+        if ( count <= 0 )
+        {
+            return false;
+        }
+        State state = (State) getInitialState();
+        for ( int i = 0; i < count - 1; i++ )
+        {
+            if ( isIgnored( state, segments[i], Boolean.TRUE ) )
+            {
+                return true;
+            }
+            state = enter( state, segments[i], null );
+        }
+        return isIgnored( state, segments[count - 1], directory );
+    }
+
+    /**
+     * Tells whether the specified child of a directory is ignored.
+     * 
+     * @param parent The state of the directory, must not be {@code null}.
+     * @param name The name of the child, must not be {@code null}.
+     * @param directory Whether the child is a directory, may be {@code null} to determine this only if the rules need
+     *            to know.
+     * @return {@code true} if the child is ignored, {@code false} otherwise.
+     */
+    private boolean isIgnored( State parent, String name, Boolean directory )
+    {
+        if ( directory != null )
+        {
+            return matchRules( parent, name, directory.booleanValue() );
+        }
+        // only rules ending with a slash tell files from directories, so ask the file system only if those matter
+        boolean ignored = matchRules( parent, name, false );
+        if ( ignored != matchRules( parent, name, true ) && new File( parent.dir, name ).isDirectory() )
+        {
+            ignored = !ignored;
+        }
+        return ignored;
+    }
+
+    private boolean matchRules( State parent, String name, boolean directory )
+    {
+        String[] path = parent.path;
+        for ( Scope scope = parent.scope; scope != null; scope = scope.parent )
+        {
+            Boolean ignored = scope.rules.match( path, scope.depth, path.length, name, directory );
+            if ( ignored != null )
+            {
+                return ignored.booleanValue();
+            }
+        }
+        return false;
+    }
+
+    private State enter( State parent, String name, Object selectorState )
+    {
+        int depth = parent.path.length;
+        String[] path = new String[depth + 1];
+        System.arraycopy( parent.path, 0, path, 0, depth );
+        path[depth] = name;
+
+        File dir = new File( parent.dir, name );
+        return new State( selectorState, dir, path, push( parent.scope, new File( dir, IGNORE_FILE ), depth + 1 ) );
+    }
+
+    private Scope push( Scope scope, File file, int depth )
+    {
+        GitIgnoreRules rules = getRules( file );
+        return ( rules != null && !rules.isEmpty() ) ? new Scope( rules, depth, scope ) : scope;
+    }
+
+    private GitIgnoreRules getRules( File file )
+    {
+        long timestamp = file.lastModified();
+        if ( timestamp == 0 )
+        {
+            synchronized ( rules )
+            {
+                rules.remove( file );
+            }
+            return null;
+        }
+
+        GitIgnoreRules result;
+        synchronized ( rules )
+        {
+            result = rules.get( file );
+        }
+        if ( result == null || result.isStale( timestamp ) )
+        {
+            try
+            {
+                result = GitIgnoreRules.load( file, caseSensitive );
+            }
+            catch ( IOException e )
+            {
+                result = GitIgnoreRules.empty( file );
+            }
+            synchronized ( rules )
+            {
+                rules.put( file, result );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The state of a directory, i.e. the state of the wrapped selector and the ignore rules that apply to the children
+     * of the directory.
+     */
+    static final class State
+    {
+
+        final Object selector;
+
+        final File dir;
+
+        // the segments of the directory relative to the top directory
+        final String[] path;
+
+        final Scope scope;
+
+        State( Object selector, File dir, String[] path, Scope scope )
+        {
+            this.selector = selector;
+            this.dir = dir;
+            this.path = path;
+            this.scope = scope;
+        }
+
+    }
+
+    /**
+     * The rules of an ignore file, linked to the rules of the ignore files in the ancestor directories.
+     */
+    static final class Scope
+    {
+
+        final GitIgnoreRules rules;
+
+        // the number of path segments of the directory containing the ignore file
+        final int depth;
+
+        final Scope parent;
+
+        Scope( GitIgnoreRules rules, int depth, Scope parent )
+        {
+            this.rules = rules;
+            this.depth = depth;
+            this.parent = parent;
+        }
+
+    }
+
+}
@@ -0,0 +1,336 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The stat cache of a git work tree as recorded in its index file ({@code .git/index}, versions 2 to 4). For tracked
+ * files whose size and timestamp still match the index, the index provides the blob id, i.e. the SHA-1 of the file
+ * contents, without reading the file. Entries that are racily clean, i.e. whose file was modified in the same second
+ * the index was written, are verified by hashing the file.
+ */
+class GitIndex
+{
+
+    private static final int SIGNATURE = 0x44495243; // "DIRC"
+
+    private static final int FLAG_EXTENDED = 0x4000;
+
+    private static final int MASK_STAGE = 0x3000;
+
+    private static final int MASK_NAME = 0x0FFF;
+
+    private final File workTree;
+
+    private final File indexFile;
+
+    private final long timestamp;
+
+    private final long size;
+
+    // path relative to work tree using forward slashes -> entry
+    private final Map<String, Entry> entries;
+
+    private GitIndex( File workTree, File indexFile, long timestamp, long size, Map<String, Entry> entries )
+    {
+        this.workTree = workTree;
+        this.indexFile = indexFile;
+        this.timestamp = timestamp;
+        this.size = size;
+        this.entries = entries;
+    }
+
+    public static GitIndex load( File workTree, File indexFile )
+        throws IOException
+    {
+        long timestamp = indexFile.lastModified();
+        long size = indexFile.length();
+
+        byte[] bytes;
+        RandomAccessFile raf = new RandomAccessFile( indexFile, "r" );
+        try
+        {
+            bytes = new byte[(int) raf.length()];
+            raf.readFully( bytes );
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        try
+        {
+            return new GitIndex( workTree, indexFile, timestamp, size, parse( bytes ) );
+        }
+        catch ( IndexOutOfBoundsException e )
+        {
+            throw (IOException) new IOException( "Corrupted git index file" ).initCause( e );
+        }
+    }
+
+    /**
+     * Creates an index without entries for an index file that could not be read, to avoid reading it again before it
+     * changes.
+     */
+    public static GitIndex empty( File workTree, File indexFile )
+    {
+        return new GitIndex( workTree, indexFile, indexFile.lastModified(), indexFile.length(),
+                             new HashMap<String, Entry>() );
+    }
+
+    static Map<String, Entry> parse( byte[] bytes )
+        throws IOException
+    {
+        if ( bytes.length < 12 + 20 || readInt( bytes, 0 ) != SIGNATURE )
+        {
+            throw new IOException( "Not a git index file" );
+        }
+
+        MessageDigest digest = newSha1();
+        digest.update( bytes, 0, bytes.length - 20 );
+        byte[] checksum = new byte[20];
+        System.arraycopy( bytes, bytes.length - 20, checksum, 0, 20 );
+        if ( !Arrays.equals( checksum, digest.digest() ) )
+        {
+            throw new IOException( "Corrupted git index file" );
+        }
+
+        int version = readInt( bytes, 4 );
+        if ( version < 2 || version > 4 )
+        {
+            throw new IOException( "Unsupported git index version " + version );
+        }
+
+        int count = readInt( bytes, 8 );
+        Map<String, Entry> entries = new HashMap<String, Entry>( count * 4 / 3 + 16 );
+
+        int pos = 12;
+        byte[] previousPath = new byte[0];
+        int previousLength = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            int start = pos;
+            int mtime = readInt( bytes, pos + 8 );
+            int fileSize = readInt( bytes, pos + 36 );
+            byte[] id = new byte[20];
+            System.arraycopy( bytes, pos + 40, id, 0, 20 );
+            int flags = readShort( bytes, pos + 60 );
+            pos += 62;
+            if ( ( flags & FLAG_EXTENDED ) != 0 && version >= 3 )
+            {
+                pos += 2;
+            }
+
+            byte[] path;
+            int pathLength;
+            if ( version >= 4 )
+            {
+                // path is prefix-compressed against the previous entry, no padding
+                int strip = 0;
+                int b;
+                do
+                {
+                    b = bytes[pos++] & 0xFF;
+                    strip = ( strip << 7 ) | ( b & 0x7F );
+                    if ( ( b & 0x80 ) != 0 )
+                    {
+                        strip++;
+                    }
+                }
+                while ( ( b & 0x80 ) != 0 );
+
+                int end = indexOf( bytes, pos, (byte) 0 );
+                int prefix = previousLength - strip;
+                pathLength = prefix + end - pos;
+                path = new byte[pathLength];
+                System.arraycopy( previousPath, 0, path, 0, prefix );
+                System.arraycopy( bytes, pos, path, prefix, end - pos );
+                pos = end + 1;
+            }
+            else
+            {
+                int nameLength = flags & MASK_NAME;
+                int end = ( nameLength < MASK_NAME ) ? pos + nameLength : indexOf( bytes, pos, (byte) 0 );
+                pathLength = end - pos;
+                path = new byte[pathLength];
+                System.arraycopy( bytes, pos, path, 0, pathLength );
+                // entries are padded with 1 to 8 NUL bytes to a multiple of 8
+                pos = start + ( ( end - start + 8 ) & ~7 );
+            }
+            previousPath = path;
+            previousLength = pathLength;
+
+            if ( ( flags & MASK_STAGE ) == 0 )
+            {
+                entries.put( toString( path ), new Entry( mtime, fileSize, id ) );
+            }
+            else
+            {
+                // unmerged paths have no reliable blob id
+                entries.remove( toString( path ) );
+            }
+        }
+
+        return entries;
+    }
+
+    public File getWorkTree()
+    {
+        return workTree;
+    }
+
+    public boolean isStale()
+    {
+        return indexFile.lastModified() != timestamp || indexFile.length() != size;
+    }
+
+    public int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Gets the blob id of the specified file if its current size and timestamp match the index.
+     * 
+     * @param path The path of the file relative to the work tree, using forward slashes, must not be {@code null}.
+     * @param file The file, must not be {@code null}.
+     * @return The blob id or {@code null} if the file is not tracked or has been modified since it was staged.
+     */
+    public byte[] getBlobId( String path, File file )
+    {
+        Entry entry = entries.get( path );
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if ( entry.mtime != (int) ( lastModified / 1000 ) || entry.size != (int) length )
+        {
+            return null;
+        }
+
+        if ( entry.mtime >= (int) ( timestamp / 1000 ) )
+        {
+            // racily clean, the file could have been modified after the index was written without changing its stamp
+            try
+            {
+                if ( !Arrays.equals( entry.id, hashBlob( file, length ) ) )
+                {
+                    return null;
+                }
+            }
+            catch ( IOException e )
+            {
+                return null;
+            }
+        }
+
+        return entry.id;
+    }
+
+    static byte[] hashBlob( File file, long length )
+        throws IOException
+    {
+        MessageDigest digest = newSha1();
+        digest.update( ( "blob " + length ).getBytes( "US-ASCII" ) );
+        digest.update( (byte) 0 );
+
+        InputStream is = new FileInputStream( file );
+        try
+        {
+            byte[] buffer = new byte[1024 * 8];
+            long total = 0;
+            for ( int n; ( n = is.read( buffer ) ) >= 0; )
+            {
+                digest.update( buffer, 0, n );
+                total += n;
+            }
+            if ( total != length )
+            {
+                throw new IOException( "File " + file + " changed while hashing" );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+
+        return digest.digest();
+    }
+
+    private static MessageDigest newSha1()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "Could not initialize SHA-1 digest", e );
+        }
+    }
+
+    private static int readInt( byte[] bytes, int pos )
+    {
+        return ( ( bytes[pos] & 0xFF ) << 24 ) | ( ( bytes[pos + 1] & 0xFF ) << 16 ) | ( ( bytes[pos + 2] & 0xFF ) << 8 )
+            | ( bytes[pos + 3] & 0xFF );
+    }
+
+    private static int readShort( byte[] bytes, int pos )
+    {
+        return ( ( bytes[pos] & 0xFF ) << 8 ) | ( bytes[pos + 1] & 0xFF );
+    }
+
+    private static int indexOf( byte[] bytes, int pos, byte b )
+    {
+        while ( bytes[pos] != b )
+        {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static String toString( byte[] path )
+        throws UnsupportedEncodingException
+    {
+        return new String( path, "UTF-8" );
+    }
+
+    static final class Entry
+    {
+
+        final int mtime;
+
+        final int size;
+
+        final byte[] id;
+
+        Entry( int mtime, int size, byte[] id )
+        {
+            this.mtime = mtime;
+            this.size = size;
+            this.id = id;
+        }
+
+    }
+
+}
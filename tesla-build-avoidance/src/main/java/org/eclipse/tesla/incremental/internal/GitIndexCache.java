@@ -0,0 +1,167 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Provides the git blob ids of files residing in git work trees. The work tree of a file is located by searching its
+ * ancestor directories for a {@code .git} directory or file. Index files are loaded on demand and reloaded once they
+ * changed on disk.
+ */
+class GitIndexCache
+{
+
+    private final Logger log;
+
+    // directory -> work tree containing it, or null if the directory is not inside a work tree
+    private final Map<File, File> workTrees;
+
+    // work tree -> index
+    private final Map<File, GitIndex> indexes;
+
+    // work tree -> index file
+    private final Map<File, File> indexFiles;
+
+    public GitIndexCache( Logger log )
+    {
+        this.log = ( log != null ) ? log : NullLogger.INSTANCE;
+        workTrees = new HashMap<File, File>();
+        indexes = new HashMap<File, GitIndex>();
+        indexFiles = new HashMap<File, File>();
+    }
+
+    /**
+     * Gets the blob id of the specified file, provided the file is tracked by git and unmodified since it was staged.
+     * 
+     * @param file The (normalized) file to get the blob id for, must not be {@code null}.
+     * @return The blob id or {@code null} if unknown.
+     */
+    public synchronized byte[] getBlobId( File file )
+    {
+        File dir = file.getParentFile();
+        if ( dir == null )
+        {
+            return null;
+        }
+
+        File workTree = getWorkTree( dir );
+        if ( workTree == null )
+        {
+            return null;
+        }
+
+        GitIndex index = getIndex( workTree );
+
+        String path = FileUtils.relativize( file, workTree );
+        if ( path == null )
+        {
+            return null;
+        }
+        if ( File.separatorChar != '/' )
+        {
+            path = path.replace( File.separatorChar, '/' );
+        }
+
+        return index.getBlobId( path, file );
+    }
+
+    private File getWorkTree( File dir )
+    {
+        if ( workTrees.containsKey( dir ) )
+        {
+            return workTrees.get( dir );
+        }
+
+        File workTree;
+        File dotGit = new File( dir, ".git" );
+        if ( dotGit.exists() )
+        {
+            File indexFile = getIndexFile( dotGit );
+            if ( indexFile != null )
+            {
+                workTree = dir;
+                indexFiles.put( workTree, indexFile );
+            }
+            else
+            {
+                workTree = null;
+            }
+        }
+        else
+        {
+            File parent = dir.getParentFile();
+            workTree = ( parent != null ) ? getWorkTree( parent ) : null;
+        }
+
+        workTrees.put( dir, workTree );
+        return workTree;
+    }
+
+    private File getIndexFile( File dotGit )
+    {
+        if ( dotGit.isDirectory() )
+        {
+            return new File( dotGit, "index" );
+        }
+
+        // linked work tree or submodule, the file points at the actual git directory
+        try
+        {
+            BufferedReader reader = new BufferedReader( new FileReader( dotGit ) );
+            try
+            {
+                String line = reader.readLine();
+                if ( line != null && line.startsWith( "gitdir:" ) )
+                {
+                    File gitDir = FileUtils.resolve( new File( line.substring( 7 ).trim() ), dotGit.getParentFile() );
+                    return new File( gitDir, "index" );
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Could not read git directory from " + dotGit, e );
+        }
+        return null;
+    }
+
+    private GitIndex getIndex( File workTree )
+    {
+        GitIndex index = indexes.get( workTree );
+        if ( index != null && !index.isStale() )
+        {
+            return index;
+        }
+
+        File indexFile = indexFiles.get( workTree );
+        try
+        {
+            index = GitIndex.load( workTree, indexFile );
+        }
+        catch ( IOException e )
+        {
+            log.debug( "Could not read git index " + indexFile, e );
+            index = GitIndex.empty( workTree, indexFile );
+        }
+
+        indexes.put( workTree, index );
+        return index;
+    }
+
+}
@@ -9,8 +9,12 @@ package org.eclipse.tesla.incremental.internal;
  *******************************************************************************/
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
 
 import org.eclipse.tesla.incremental.PathSet;
 
@@ -18,9 +22,27 @@ class GlobSelector
     implements Selector
 {
 
-    private static final String DEEP_TREE_SUFFIX = File.separator + "**";
+    // the state for paths within a subtree excluded by the default excludes
+    private static final Object EXCLUDED = new Object();
 
-    private static final String[] DEFAULT_EXCLUDES = {
+    // orders paths like a directory scan reports them, i.e. a directory right before its contents
+    private static final Comparator<String[]> SCAN_ORDER = new Comparator<String[]>()
+    {
+        public int compare( String[] segments1, String[] segments2 )
+        {
+            for ( int i = 0, n = Math.min( segments1.length, segments2.length ); i < n; i++ )
+            {
+                int rel = segments1[i].compareTo( segments2[i] );
+                if ( rel != 0 )
+                {
+                    return rel;
+                }
+            }
+            return segments1.length - segments2.length;
+        }
+    };
+
+    static final String[] DEFAULT_EXCLUDES = {
 
         // Miscellaneous typical temporary files
         "**/*~", "**/#*#", "**/.#*", "**/%*%", "**/._*",
@@ -69,12 +91,31 @@ class GlobSelector
 
     };
 
+    // the default excludes only concern the names of path segments so they are checked apart from the automaton
+    private static final NameExcludes DEFAULT_NAME_EXCLUDES = newDefaultExcludes( true );
+
+    private static final NameExcludes DEFAULT_NAME_EXCLUDES_IGNORING_CASE = newDefaultExcludes( false );
+
     private final String[] includes;
 
     private final String[] excludes;
 
     private final boolean caseSensitive;
 
+    private final String[][] includeTokens;
+
+    private final boolean[] absoluteIncludes;
+
+    private final String[][] excludeTokens;
+
+    private final NameExcludes defaultExcludes;
+
+    private final SegmentMatcher matcher;
+
+    private final String[][] literalPaths;
+
+    private final String[][] roots;
+
     public GlobSelector( PathSet pathSet )
     {
         this( pathSet.getIncludes(), pathSet.getExcludes(), pathSet.isDefaultExcludes(), pathSet.isCaseSensitive() );
@@ -108,15 +149,134 @@ class GlobSelector
         }
         if ( defaultExcludes )
         {
-            for ( String exclude : DEFAULT_EXCLUDES )
+            this.defaultExcludes = caseSensitive ? DEFAULT_NAME_EXCLUDES : DEFAULT_NAME_EXCLUDES_IGNORING_CASE;
+            for ( String exclude : this.defaultExcludes.getUnsupportedPatterns() )
             {
-                normalizedExcludes.add( normalizePattern( exclude ) );
+                normalizedExcludes.add( exclude );
             }
         }
+        else
+        {
+            this.defaultExcludes = null;
+        }
 
         this.includes = normalizedIncludes.toArray( new String[normalizedIncludes.size()] );
         this.excludes = normalizedExcludes.toArray( new String[normalizedExcludes.size()] );
         this.caseSensitive = caseSensitive;
+
+        includeTokens = tokenize( this.includes );
+        excludeTokens = tokenize( this.excludes );
+
+        absoluteIncludes = new boolean[this.includes.length];
+        for ( int i = 0; i < absoluteIncludes.length; i++ )
+        {
+            absoluteIncludes[i] = this.includes[i].startsWith( File.separator );
+        }
+
+        matcher = new SegmentMatcher( includeTokens, excludeTokens, caseSensitive );
+
+        literalPaths = getLiteralPrefixes( true );
+        roots = ( literalPaths == null ) ? getLiteralPrefixes( false ) : null;
+    }
+
+    private static NameExcludes newDefaultExcludes( boolean caseSensitive )
+    {
+        String[] patterns = new String[DEFAULT_EXCLUDES.length];
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            patterns[i] = normalizePattern( DEFAULT_EXCLUDES[i] );
+        }
+        return new NameExcludes( patterns, caseSensitive );
+    }
+
+    /**
+     * Determines the literal leading segments of the include patterns. A literal path must match exactly one file
+     * system entry, hence patterns are only considered for case-sensitive selection, relative to the base directory
+     * and without the special directories "." and "..", which never show up in a directory listing.
+     * 
+     * @param complete {@code true} to only accept patterns that are entirely literal, {@code false} to determine the
+     *            literal parent directories of the patterns.
+     * @return The literal prefixes or {@code null} if some include pattern has none.
+     */
+    private String[][] getLiteralPrefixes( boolean complete )
+    {
+        if ( !caseSensitive || includeTokens.length <= 0 )
+        {
+            return null;
+        }
+
+        Collection<String[]> prefixes = new TreeSet<String[]>( SCAN_ORDER );
+        for ( int i = 0; i < includeTokens.length; i++ )
+        {
+            String[] tokens = includeTokens[i];
+            if ( absoluteIncludes[i] )
+            {
+                return null;
+            }
+
+            int literal = 0;
+            while ( literal < tokens.length && isLiteral( tokens[literal] ) )
+            {
+                literal++;
+            }
+            if ( !complete )
+            {
+                literal = Math.min( literal, tokens.length - 1 );
+            }
+            else if ( literal < tokens.length )
+            {
+                return null;
+            }
+            if ( literal <= 0 )
+            {
+                return null;
+            }
+
+            String[] prefix = new String[literal];
+            System.arraycopy( tokens, 0, prefix, 0, literal );
+            prefixes.add( prefix );
+        }
+
+        List<String[]> result = new ArrayList<String[]>( prefixes.size() );
+        for ( String[] prefix : prefixes )
+        {
+            if ( complete || result.isEmpty() || !isAncestor( result.get( result.size() - 1 ), prefix ) )
+            {
+                result.add( prefix );
+            }
+        }
+        return result.toArray( new String[result.size()][] );
+    }
+
+    private static boolean isLiteral( String segment )
+    {
+        return !SelectorUtils.hasWildcards( segment ) && !".".equals( segment ) && !"..".equals( segment );
+    }
+
+    private static boolean isAncestor( String[] ancestor, String[] segments )
+    {
+        if ( ancestor.length > segments.length )
+        {
+            return false;
+        }
+        for ( int i = 0; i < ancestor.length; i++ )
+        {
+            if ( !ancestor[i].equals( segments[i] ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[][] tokenize( String[] patterns )
+    {
+        String[][] tokens = new String[patterns.length][];
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            tokens[i] = SelectorUtils.tokenizePathAsArray( patterns[i] );
+        }
+        return tokens;
     }
 
     private static String normalizePattern( String pattern )
@@ -133,62 +293,95 @@ class GlobSelector
         return result;
     }
 
+    public String[][] getLiteralPaths()
+    {
+        return literalPaths;
+    }
+
+    public String[][] getRoots()
+    {
+        return roots;
+    }
+
     public boolean isSelected( String pathname )
     {
-        if ( includes.length > 0 && !isMatched( pathname, includes ) )
+        String[] segments = SelectorUtils.tokenizePathAsArray( pathname );
+        return isSelected( segments, segments.length );
+    }
+
+    public boolean isSelected( String[] segments, int count )
+    {
+        return ( defaultExcludes == null || !defaultExcludes.isExcluded( segments, count ) )
+            && matcher.matches( segments, count );
+    }
+
+    public Object getInitialState()
+    {
+        return matcher.getInitialStates();
+    }
+
+    public Object descend( Object state, String name )
+    {
+        if ( state == EXCLUDED || ( defaultExcludes != null && defaultExcludes.isTreeExcluded( name ) ) )
         {
-            return false;
+            return EXCLUDED;
         }
-        if ( excludes.length > 0 && isMatched( pathname, excludes ) )
+        return matcher.step( (int[]) state, name );
+    }
+
+    public boolean isSelected( Object state, String name )
+    {
+        if ( state == EXCLUDED || ( defaultExcludes != null && defaultExcludes.isExcluded( name ) ) )
         {
             return false;
         }
-        return true;
+        return matcher.isAccepted( (int[]) state, name );
     }
 
-    private boolean isMatched( String pathname, String[] patterns )
+    public boolean isAncestorOfPotentiallySelected( Object state )
     {
-        for ( int i = patterns.length - 1; i >= 0; i-- )
-        {
-            String pattern = patterns[i];
-            if ( SelectorUtils.matchPath( pattern, pathname, caseSensitive ) )
-            {
-                return true;
-            }
-        }
-        return false;
+        return state != EXCLUDED && matcher.isAcceptingDescendants( (int[]) state );
     }
 
     public boolean isAncestorOfPotentiallySelected( String pathname )
     {
-        return !isEveryDescendantSurelyExcluded( pathname ) && isAnyDescendantPotentiallyIncluded( pathname );
+        String[] segments = SelectorUtils.tokenizePathAsArray( pathname );
+        boolean ancestor = isAncestorOfPotentiallySelected( segments, segments.length );
+        if ( ancestor && pathname.startsWith( File.separator ) )
+        {
+            // the automaton does not tell absolute from relative includes
+            ancestor = isAnyAbsoluteDescendantPotentiallyIncluded( segments );
+        }
+        return ancestor;
     }
 
-    private boolean isAnyDescendantPotentiallyIncluded( String pathname )
+    /**
+     * Tells whether some path below the specified path could be selected. The path is fed through the automaton that
+     * also decides selection, so the whole subtree of a path is ruled out once none of the includes can match any
+     * longer, be it due to a mismatching literal prefix or due to exceeding the depth of an include without "**", or
+     * once an exclude ending in "**" like "**&#47;target&#47;**" matches the path.
+     */
+    public boolean isAncestorOfPotentiallySelected( String[] segments, int count )
     {
-        for ( int i = 0; i < includes.length; i++ )
+        Object state = getInitialState();
+        for ( int i = 0; i < count && state != EXCLUDED; i++ )
         {
-            if ( SelectorUtils.matchPatternStart( includes[i], pathname, caseSensitive ) )
-            {
-                return true;
-            }
+            state = descend( state, segments[i] );
         }
-        return includes.length <= 0;
+        return isAncestorOfPotentiallySelected( state );
     }
 
-    private boolean isEveryDescendantSurelyExcluded( String pathname )
+    private boolean isAnyAbsoluteDescendantPotentiallyIncluded( String[] segments )
     {
-        for ( int i = 0; i < excludes.length; i++ )
+        for ( int i = 0; i < includeTokens.length; i++ )
         {
-            String exclude = excludes[i];
-            if ( exclude.endsWith( DEEP_TREE_SUFFIX )
-                && SelectorUtils.matchPath( exclude.substring( 0, exclude.length() - DEEP_TREE_SUFFIX.length() ),
-                                            pathname, caseSensitive ) )
+            if ( absoluteIncludes[i]
+                && SelectorUtils.matchPatternStart( includeTokens[i], segments, segments.length, caseSensitive ) )
             {
                 return true;
             }
         }
-        return false;
+        return includes.length <= 0;
     }
 
 }
@@ -22,6 +22,8 @@ public interface InputResolutionContext
 
     PathSet getPathSet();
 
+    Selector getSelector();
+
     boolean isSelected( String pathname );
 
     boolean isAncestorOfPotentiallySelected( String pathname );
@@ -32,4 +34,24 @@ public interface InputResolutionContext
 
     boolean isProcessingRequired( File input );
 
+    boolean isProcessingRequired( File input, boolean directory );
+
+    DirectoryListing listDirectory( File directory );
+
+    FileState getInputState( File input );
+
+    Collection<File> getReferencingInputs();
+
+    boolean isScanned();
+
+    void setScanned();
+
+    ScanSummary getScanSummary();
+
+    void setScanSummary( ScanSummary summary );
+
+    long getJournalPosition();
+
+    void setJournalPosition( long position );
+
 }
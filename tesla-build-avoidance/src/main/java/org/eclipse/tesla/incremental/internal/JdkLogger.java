@@ -0,0 +1,72 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.logging.Level;
+
+/**
+ * Routes log messages to {@code java.util.logging}, for use outside of a host that provides its own logger.
+ */
+class JdkLogger
+    implements Logger
+{
+
+    private final java.util.logging.Logger logger;
+
+    public JdkLogger( String name )
+    {
+        this.logger = java.util.logging.Logger.getLogger( name );
+    }
+
+    public boolean isDebugEnabled()
+    {
+        return logger.isLoggable( Level.FINE );
+    }
+
+    public void debug( String msg )
+    {
+        logger.log( Level.FINE, msg );
+    }
+
+    public void debug( String msg, Throwable error )
+    {
+        logger.log( Level.FINE, msg, error );
+    }
+
+    public boolean isWarnEnabled()
+    {
+        return logger.isLoggable( Level.WARNING );
+    }
+
+    public void warn( String msg )
+    {
+        logger.log( Level.WARNING, msg );
+    }
+
+    public void warn( String msg, Throwable error )
+    {
+        logger.log( Level.WARNING, msg, error );
+    }
+
+    public boolean isErrorEnabled()
+    {
+        return logger.isLoggable( Level.SEVERE );
+    }
+
+    public void error( String msg )
+    {
+        logger.log( Level.SEVERE, msg );
+    }
+
+    public void error( String msg, Throwable error )
+    {
+        logger.log( Level.SEVERE, msg, error );
+    }
+
+}
@@ -0,0 +1,195 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Excludes paths by the names of their segments, i.e. implements exclude patterns of the forms "**&#47;NAME" and
+ * "**&#47;NAME&#47;**" without general wildcard matching. The literal names are kept in a set such that checking a
+ * segment takes one lookup regardless of the number of patterns, names with a single "*" like "*~" are checked by
+ * comparing their literal prefix and suffix.
+ */
+final class NameExcludes
+{
+
+    private static final String DEEP_TREE_MATCH = "**";
+
+    // case-insensitive like SelectorUtils.match(), i.e. characters are compared by their upper case
+    private static final Comparator<String> CASE_INSENSITIVE_ORDER = new Comparator<String>()
+    {
+        public int compare( String name1, String name2 )
+        {
+            for ( int i = 0, n = Math.min( name1.length(), name2.length() ); i < n; i++ )
+            {
+                char c1 = Character.toUpperCase( name1.charAt( i ) );
+                char c2 = Character.toUpperCase( name2.charAt( i ) );
+                if ( c1 != c2 )
+                {
+                    return c1 - c2;
+                }
+            }
+            return name1.length() - name2.length();
+        }
+    };
+
+    // names excluded along with their subtrees
+    private final Set<String> treeNames;
+
+    // names excluded by themselves
+    private final Set<String> names;
+
+    // literal prefixes/suffixes of names with a single "*"
+    private final String[] prefixes;
+
+    private final String[] suffixes;
+
+    private final boolean caseSensitive;
+
+    private final String[] unsupported;
+
+    /**
+     * Creates a new filter from the specified exclude patterns.
+     * 
+     * @param patterns The normalized exclude patterns, must not be {@code null}.
+     * @param caseSensitive Whether names are compared case-sensitively.
+     */
+    public NameExcludes( String[] patterns, boolean caseSensitive )
+    {
+        this.caseSensitive = caseSensitive;
+        treeNames = caseSensitive ? new HashSet<String>() : new TreeSet<String>( CASE_INSENSITIVE_ORDER );
+        names = caseSensitive ? new HashSet<String>() : new TreeSet<String>( CASE_INSENSITIVE_ORDER );
+
+        List<String> prefixes = new ArrayList<String>();
+        List<String> suffixes = new ArrayList<String>();
+        Collection<String> unsupported = new ArrayList<String>();
+        for ( String pattern : patterns )
+        {
+            String[] tokens = SelectorUtils.tokenizePathAsArray( pattern );
+            boolean tree = tokens.length == 3 && DEEP_TREE_MATCH.equals( tokens[2] );
+            if ( ( tokens.length != 2 && !tree ) || !DEEP_TREE_MATCH.equals( tokens[0] )
+                || pattern.startsWith( File.separator ) || tokens[1].indexOf( '?' ) >= 0 )
+            {
+                unsupported.add( pattern );
+                continue;
+            }
+
+            String name = tokens[1];
+            int star = name.indexOf( '*' );
+            if ( star < 0 )
+            {
+                ( tree ? treeNames : names ).add( name );
+            }
+            else if ( !tree && star == name.lastIndexOf( '*' ) )
+            {
+                prefixes.add( name.substring( 0, star ) );
+                suffixes.add( name.substring( star + 1 ) );
+            }
+            else
+            {
+                unsupported.add( pattern );
+            }
+        }
+        names.removeAll( treeNames );
+
+        this.prefixes = prefixes.toArray( new String[prefixes.size()] );
+        this.suffixes = suffixes.toArray( new String[suffixes.size()] );
+        this.unsupported = unsupported.toArray( new String[unsupported.size()] );
+    }
+
+    /**
+     * Gets the patterns which are not of the supported forms and need to be matched by other means.
+     * 
+     * @return The unsupported patterns, never {@code null}.
+     */
+    public String[] getUnsupportedPatterns()
+    {
+        return unsupported;
+    }
+
+    /**
+     * Tells whether a path with the specified last segment is excluded, given that its parent is not.
+     * 
+     * @param name The last segment of the path, must not be {@code null}.
+     * @return {@code true} if the path is excluded, {@code false} otherwise.
+     */
+    public boolean isExcluded( String name )
+    {
+        if ( treeNames.contains( name ) || names.contains( name ) )
+        {
+            return true;
+        }
+        for ( int i = 0; i < prefixes.length; i++ )
+        {
+            String prefix = prefixes[i];
+            String suffix = suffixes[i];
+            int length = name.length();
+            if ( length >= prefix.length() + suffix.length() && regionMatches( name, 0, prefix )
+                && regionMatches( name, length - suffix.length(), suffix ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether the specified segment excludes the path along with all its descendants.
+     * 
+     * @param name The segment, must not be {@code null}.
+     * @return {@code true} if the subtree of the segment is excluded, {@code false} otherwise.
+     */
+    public boolean isTreeExcluded( String name )
+    {
+        return treeNames.contains( name );
+    }
+
+    /**
+     * Tells whether the specified path is excluded.
+     * 
+     * @param segments The segments of the path, must not be {@code null}.
+     * @param count The number of leading segments that make up the path.
+     * @return {@code true} if the path is excluded, {@code false} otherwise.
+     */
+    public boolean isExcluded( String[] segments, int count )
+    {
+        for ( int i = 0; i < count - 1; i++ )
+        {
+            if ( treeNames.contains( segments[i] ) )
+            {
+                return true;
+            }
+        }
+        return count > 0 && isExcluded( segments[count - 1] );
+    }
+
+    private boolean regionMatches( String name, int offset, String part )
+    {
+        if ( caseSensitive )
+        {
+            return name.startsWith( part, offset );
+        }
+        for ( int i = 0, n = part.length(); i < n; i++ )
+        {
+            if ( Character.toUpperCase( name.charAt( offset + i ) ) != Character.toUpperCase( part.charAt( i ) ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,91 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+/**
+ * A handle to a build state that is possibly still being loaded in the background. The first call to {@link #get()}
+ * joins the load.
+ */
+class PendingBuildState
+{
+
+    private final DefaultBuildContextManager manager;
+
+    private final File stateFile;
+
+    private final Future<BuildState> loading;
+
+    private final long created;
+
+    private BuildState buildState;
+
+    public PendingBuildState( BuildState buildState )
+    {
+        if ( buildState == null )
+        {
+            throw new IllegalArgumentException( "build state not specified" );
+        }
+        this.manager = null;
+        this.stateFile = buildState.getStateFile();
+        this.loading = null;
+        this.created = System.currentTimeMillis();
+        this.buildState = buildState;
+    }
+
+    public PendingBuildState( DefaultBuildContextManager manager, File stateFile, Future<BuildState> loading )
+    {
+        if ( manager == null )
+        {
+            throw new IllegalArgumentException( "build context manager not specified" );
+        }
+        if ( stateFile == null )
+        {
+            throw new IllegalArgumentException( "state file not specified" );
+        }
+        if ( loading == null )
+        {
+            throw new IllegalArgumentException( "state loading not specified" );
+        }
+        this.manager = manager;
+        this.stateFile = stateFile;
+        this.loading = loading;
+        this.created = System.currentTimeMillis();
+    }
+
+    public File getStateFile()
+    {
+        return stateFile;
+    }
+
+    public long getCreated()
+    {
+        return created;
+    }
+
+    public synchronized BuildState get()
+    {
+        if ( buildState == null )
+        {
+            buildState = manager.claimBuildState( this, loading );
+        }
+        return buildState;
+    }
+
+    void cancel()
+    {
+        if ( loading != null )
+        {
+            loading.cancel( false );
+        }
+    }
+
+}
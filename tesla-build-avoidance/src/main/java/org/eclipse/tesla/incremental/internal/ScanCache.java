@@ -0,0 +1,94 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the directory listings taken during the input scans of a single build context. Builders commonly request
+ * several path sets from the same base directory, e.g. one per file extension, and each of those scans would otherwise
+ * list the same directories again. Within a build context, the input directories are only expected to change by the
+ * outputs reported to the context, so those outputs invalidate the listings of their parent directories.
+ */
+class ScanCache
+{
+
+    private final Map<File, DirectoryListing> listings = new HashMap<File, DirectoryListing>();
+
+    private int invalidations;
+
+    /**
+     * Lists the specified directory, reusing a listing that was taken earlier during the same build.
+     * 
+     * @param directory The directory to list, must not be {@code null}.
+     * @param buildState The build state used to list directories not yet in the cache, must not be {@code null}.
+     * @return The directory contents or {@code null} if the file does not denote a readable directory.
+     */
+    public DirectoryListing list( File directory, BuildState buildState )
+    {
+        int generation;
+        synchronized ( this )
+        {
+            DirectoryListing listing = listings.get( directory );
+            if ( listing != null )
+            {
+                return listing;
+            }
+            generation = invalidations;
+        }
+
+        DirectoryListing listing = buildState.listDirectory( directory );
+
+        synchronized ( this )
+        {
+            // a concurrent invalidation might concern the directory just listed, so better list it again next time
+            if ( listing != null && generation == invalidations )
+            {
+                listings.put( directory, listing );
+            }
+        }
+
+        return listing;
+    }
+
+    /**
+     * Invalidates the listings affected by the creation of the specified file. Besides the parent directory, this
+     * includes any ancestor directories that got created along with the file.
+     * 
+     * @param file The file that has been created or updated, must not be {@code null}.
+     */
+    public synchronized void invalidate( File file )
+    {
+        if ( listings.isEmpty() )
+        {
+            return;
+        }
+
+        invalidations++;
+
+        listings.remove( file );
+
+        for ( File child = file, parent = file.getParentFile(); parent != null; parent = parent.getParentFile() )
+        {
+            DirectoryListing listing = listings.get( parent );
+            if ( listing != null )
+            {
+                if ( listing.contains( child.getName() ) )
+                {
+                    break;
+                }
+                listings.remove( parent );
+            }
+            child = parent;
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of an input scan, i.e. the directories that were listed and the paths that were selected. Adding,
+ * removing or renaming an entry updates the timestamp of its directory, so as long as none of the listed directories
+ * has been modified, a scan of the same path set would select the same paths again. The selected files themselves
+ * still need to be checked for modifications since changing the contents of a file leaves its directory untouched.
+ */
+class ScanSummary
+    implements Serializable
+{
+
+    private static final long serialVersionUID = 4518373960244862717L;
+
+    private final File[] directories;
+
+    private final long[] timestamps;
+
+    private final String[] paths;
+
+    private final boolean[] kinds;
+
+    ScanSummary( File[] directories, long[] timestamps, String[] paths, boolean[] kinds )
+    {
+        this.directories = directories;
+        this.timestamps = timestamps;
+        this.paths = paths;
+        this.kinds = kinds;
+    }
+
+    /**
+     * Checks whether the listed directories are still unmodified.
+     * 
+     * @return {@code true} if a scan would select the same paths again, {@code false} otherwise.
+     */
+    public boolean isCurrent()
+    {
+        for ( int i = 0; i < directories.length; i++ )
+        {
+            if ( directories[i].lastModified() != timestamps[i] )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getPathCount()
+    {
+        return paths.length;
+    }
+
+    public String getPath( int index )
+    {
+        return paths[index];
+    }
+
+    public boolean isDirectory( int index )
+    {
+        return kinds[index];
+    }
+
+    @Override
+    public String toString()
+    {
+        return directories.length + " directories, " + paths.length + " paths";
+    }
+
+    /**
+     * Gathers the summary during a scan. Directories may be recorded concurrently by the workers of a parallel scan.
+     */
+    static final class Builder
+    {
+
+        private final List<File> directories = new ArrayList<File>( 64 );
+
+        private final List<Long> timestamps = new ArrayList<Long>( 64 );
+
+        private final List<String> paths = new ArrayList<String>( 256 );
+
+        private final List<Boolean> kinds = new ArrayList<Boolean>( 256 );
+
+        private boolean complete = true;
+
+        public synchronized void listed( File directory, DirectoryListing listing )
+        {
+            // a directory that is missing or was modified too recently cannot vouch for the selected paths
+            if ( listing == null || !listing.isSettled() )
+            {
+                complete = false;
+            }
+            else if ( complete )
+            {
+                directories.add( directory );
+                timestamps.add( Long.valueOf( listing.getTimestamp() ) );
+            }
+        }
+
+        public synchronized void selected( String path, boolean directory )
+        {
+            paths.add( path );
+            kinds.add( Boolean.valueOf( directory ) );
+        }
+
+        /**
+         * Creates the summary of the scan.
+         * 
+         * @return The summary or {@code null} if the scan cannot be summarized reliably.
+         */
+        public synchronized ScanSummary build()
+        {
+            if ( !complete || directories.isEmpty() )
+            {
+                return null;
+            }
+
+            long[] timestamps = new long[this.timestamps.size()];
+            for ( int i = 0; i < timestamps.length; i++ )
+            {
+                timestamps[i] = this.timestamps.get( i ).longValue();
+            }
+
+            boolean[] kinds = new boolean[this.kinds.size()];
+            for ( int i = 0; i < kinds.length; i++ )
+            {
+                kinds[i] = this.kinds.get( i ).booleanValue();
+            }
+
+            return new ScanSummary( directories.toArray( new File[directories.size()] ), timestamps,
+                                    paths.toArray( new String[paths.size()] ), kinds );
+        }
+
+    }
+
+}
@@ -0,0 +1,602 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches tokenized paths against a set of include and exclude patterns in a single pass. The patterns are compiled
+ * into a nondeterministic automaton over path segments: each pattern contributes one state per segment plus a final
+ * state, a "**" state consumes any number of segments and can be skipped without consuming one. The accepted paths are
+ * exactly those accepted by {@link SelectorUtils#matchPath(String[], String[], int, boolean)} for some include and
+ * none of the excludes.<br>
+ * <br>
+ * The states reachable via a leading "**" like in "**&#47;CVS" are active for any path. These fixed states are kept
+ * out of the simulated state sets, i.e. the sorted arrays of state numbers, and their transitions are precomputed.
+ * Segments with literal patterns are looked up via hashing rather than compared state by state. Likewise, the fixed
+ * states for extension patterns like "*.java" are found via the hash of the extension of a segment. Other patterns with a
+ * single "*" are matched by comparing their literal prefix and suffix, only the remaining patterns need general wildcard
+ * matching via {@link SegmentPattern}.
+ */
+final class SegmentMatcher
+{
+
+    private static final String DEEP_TREE_MATCH = "**";
+
+    private static final int[] NONE = {};
+
+    // pattern segment per state, null for final states
+    private final String[] segments;
+
+    // whether a state's segment is "**"
+    private final boolean[] deep;
+
+    // whether a state's segment is matched by hashing instead of wildcard matching
+    private final boolean[] hashed;
+
+    // the literal text before/after the star of a segment like "a*b", null for other segments
+    private final String[] prefixes;
+
+    private final String[] suffixes;
+
+    // the compiled pattern of other wildcard segments
+    private final SegmentPattern[] patterns;
+
+    // whether the closure of a state contains the final state of an include/exclude
+    private final boolean[] includes;
+
+    private final boolean[] excludes;
+
+    // whether a state belongs to an include and can still consume segments
+    private final boolean[] live;
+
+    // literal pattern segment -> non-fixed states with that segment
+    private final Map<String, int[]> literalStates;
+
+    // literal pattern segment -> successors of fixed states with that segment
+    private final Map<String, int[]> fixedTargets;
+
+    // fixed states with extension segments, sorted by the hash code of the extension
+    private final int[] extensionStates;
+
+    private final int[] extensionHashes;
+
+    // fixed states with other wildcard segments
+    private final int[] fixedWildcards;
+
+    private final long[] fixed;
+
+    private final boolean fixedInclude;
+
+    private final boolean fixedExclude;
+
+    private final boolean fixedLive;
+
+    private final boolean fixedCovering;
+
+    private final int[] initial;
+
+    private final boolean caseSensitive;
+
+    private final int words;
+
+    public SegmentMatcher( String[][] includes, String[][] excludes, boolean caseSensitive )
+    {
+        this.caseSensitive = caseSensitive;
+
+        int count = 0;
+        for ( String[] include : includes )
+        {
+            count += include.length + 1;
+        }
+        for ( String[] exclude : excludes )
+        {
+            count += exclude.length + 1;
+        }
+
+        segments = new String[count];
+        deep = new boolean[count];
+        hashed = new boolean[count];
+        prefixes = new String[count];
+        suffixes = new String[count];
+        patterns = new SegmentPattern[count];
+        this.includes = new boolean[count];
+        this.excludes = new boolean[count];
+        live = new boolean[count];
+        words = ( count + 63 ) >>> 6;
+
+        int[] starts = new int[includes.length + excludes.length];
+        int state = 0;
+        for ( int i = 0; i < starts.length; i++ )
+        {
+            boolean exclude = i >= includes.length;
+            String[] tokens = exclude ? excludes[i - includes.length] : includes[i];
+            starts[i] = state;
+            for ( String token : tokens )
+            {
+                segments[state] = token;
+                deep[state] = DEEP_TREE_MATCH.equals( token );
+                hashed[state] = caseSensitive && token.indexOf( '*' ) < 0 && token.indexOf( '?' ) < 0;
+                int star = token.indexOf( '*' );
+                if ( caseSensitive && star >= 0 && star == token.lastIndexOf( '*' ) && token.indexOf( '?' ) < 0 )
+                {
+                    prefixes[state] = token.substring( 0, star );
+                    suffixes[state] = token.substring( star + 1 );
+                }
+                else if ( !hashed[state] && !deep[state] )
+                {
+                    patterns[state] = new SegmentPattern( token, caseSensitive );
+                }
+                live[state] = !exclude;
+                state++;
+            }
+            // trailing "**" can match zero segments so their closures contain the final state
+            for ( int s = state; s >= starts[i] && ( s == state || deep[s] ); s-- )
+            {
+                ( exclude ? this.excludes : this.includes )[s] = true;
+            }
+            state++;
+        }
+
+        // a "**" state never becomes inactive, so a leading "**" and its closure are active for any path
+        fixed = new long[words];
+        long[] set = new long[words];
+        for ( int start : starts )
+        {
+            add( deep[start] ? fixed : set, start );
+        }
+
+        boolean fixedInclude = includes.length <= 0;
+        boolean fixedExclude = false;
+        boolean fixedLive = includes.length <= 0;
+        boolean fixedCovering = false;
+        Map<String, List<Integer>> literals = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> targets = new HashMap<String, List<Integer>>();
+        List<Integer> wildcards = new ArrayList<Integer>();
+        List<Integer> extensions = new ArrayList<Integer>();
+        for ( int s = 0; s < count; s++ )
+        {
+            boolean isFixed = contains( fixed, s );
+            if ( isFixed )
+            {
+                fixedInclude |= this.includes[s];
+                fixedExclude |= this.excludes[s];
+                fixedLive |= live[s];
+                fixedCovering |= deep[s] && this.excludes[s];
+            }
+            if ( segments[s] == null || deep[s] )
+            {
+                continue;
+            }
+            if ( hashed[s] )
+            {
+                put( isFixed ? targets : literals, segments[s], isFixed ? s + 1 : s );
+            }
+            else if ( isFixed )
+            {
+                ( isExtension( s ) ? extensions : wildcards ).add( Integer.valueOf( s ) );
+            }
+        }
+        this.fixedInclude = fixedInclude;
+        this.fixedExclude = fixedExclude;
+        this.fixedLive = fixedLive;
+        this.fixedCovering = fixedCovering;
+        literalStates = toMap( literals );
+        fixedTargets = toMap( targets );
+        fixedWildcards = toArray( wildcards );
+
+        Collections.sort( extensions, new Comparator<Integer>()
+        {
+            public int compare( Integer state1, Integer state2 )
+            {
+                int hash1 = suffixes[state1.intValue()].hashCode();
+                int hash2 = suffixes[state2.intValue()].hashCode();
+                return ( hash1 < hash2 ) ? -1 : ( hash1 == hash2 ? 0 : 1 );
+            }
+        } );
+        extensionStates = toArray( extensions );
+        extensionHashes = new int[extensionStates.length];
+        for ( int i = 0; i < extensionHashes.length; i++ )
+        {
+            extensionHashes[i] = suffixes[extensionStates[i]].hashCode();
+        }
+
+        initial = toStates( set );
+    }
+
+    private boolean isExtension( int state )
+    {
+        String suffix = suffixes[state];
+        return prefixes[state] != null && prefixes[state].length() <= 0 && suffix.length() > 1
+            && suffix.charAt( 0 ) == '.' && suffix.indexOf( '.', 1 ) < 0;
+    }
+
+    private static void put( Map<String, List<Integer>> map, String key, int value )
+    {
+        List<Integer> values = map.get( key );
+        if ( values == null )
+        {
+            values = new ArrayList<Integer>( 2 );
+            map.put( key, values );
+        }
+        values.add( Integer.valueOf( value ) );
+    }
+
+    private static Map<String, int[]> toMap( Map<String, List<Integer>> map )
+    {
+        Map<String, int[]> result = new HashMap<String, int[]>( map.size() * 2 );
+        for ( Map.Entry<String, List<Integer>> entry : map.entrySet() )
+        {
+            result.put( entry.getKey(), toArray( entry.getValue() ) );
+        }
+        return result;
+    }
+
+    private static int[] toArray( List<Integer> values )
+    {
+        int[] array = new int[values.size()];
+        for ( int i = 0; i < array.length; i++ )
+        {
+            array[i] = values.get( i ).intValue();
+        }
+        return array;
+    }
+
+    /**
+     * Gets the states of the automaton before any segment has been consumed.
+     * 
+     * @return The initial states, never {@code null}. The returned array must not be modified.
+     */
+    public int[] getInitialStates()
+    {
+        return initial;
+    }
+
+    /**
+     * Consumes the specified segment.
+     * 
+     * @param states The current states of the automaton, must not be {@code null}.
+     * @param segment The path segment to consume, must not be {@code null}.
+     * @return The states after consuming the segment, never {@code null}. The returned array must not be modified.
+     */
+    public int[] step( int[] states, String segment )
+    {
+        long[] next = null;
+
+        for ( int state : states )
+        {
+            int target = getTarget( state, segment );
+            if ( target >= 0 )
+            {
+                next = addLazily( next, target );
+            }
+        }
+
+        int[] candidates = literalStates.get( segment );
+        if ( candidates != null )
+        {
+            for ( int candidate : candidates )
+            {
+                if ( Arrays.binarySearch( states, candidate ) >= 0 )
+                {
+                    next = addLazily( next, candidate + 1 );
+                }
+            }
+        }
+
+        int[] targets = fixedTargets.get( segment );
+        if ( targets != null )
+        {
+            for ( int target : targets )
+            {
+                next = addLazily( next, target );
+            }
+        }
+
+        for ( int i = findExtension( segment ); i >= 0; i = nextExtension( i, segment ) )
+        {
+            next = addLazily( next, extensionStates[i] + 1 );
+        }
+
+        for ( int state : fixedWildcards )
+        {
+            if ( matches( state, segment ) )
+            {
+                next = addLazily( next, state + 1 );
+            }
+        }
+
+        return ( next != null ) ? toStates( next ) : NONE;
+    }
+
+    private int getTarget( int state, String segment )
+    {
+        if ( deep[state] )
+        {
+            return state;
+        }
+        if ( !hashed[state] && segments[state] != null && matches( state, segment ) )
+        {
+            return state + 1;
+        }
+        return -1;
+    }
+
+    private boolean matches( int state, String segment )
+    {
+        String prefix = prefixes[state];
+        if ( prefix == null )
+        {
+            return patterns[state].matches( segment );
+        }
+        String suffix = suffixes[state];
+        return segment.length() >= prefix.length() + suffix.length() && segment.startsWith( prefix )
+            && segment.endsWith( suffix );
+    }
+
+    /**
+     * Finds the first fixed extension state whose extension the specified segment has.
+     * 
+     * @param segment The segment to match, must not be {@code null}.
+     * @return The index of the state in {@link #extensionStates} or {@code -1} if none.
+     */
+    private int findExtension( String segment )
+    {
+        int dot = segment.lastIndexOf( '.' );
+        if ( dot < 0 || extensionHashes.length <= 0 )
+        {
+            return -1;
+        }
+
+        // same as segment.substring( dot ).hashCode() but without creating the string
+        int hash = 0;
+        for ( int i = dot, n = segment.length(); i < n; i++ )
+        {
+            hash = 31 * hash + segment.charAt( i );
+        }
+
+        int index = Arrays.binarySearch( extensionHashes, hash );
+        if ( index < 0 )
+        {
+            return -1;
+        }
+        while ( index > 0 && extensionHashes[index - 1] == hash )
+        {
+            index--;
+        }
+        return segment.endsWith( suffixes[extensionStates[index]] ) ? index : nextExtension( index, segment );
+    }
+
+    private int nextExtension( int index, String segment )
+    {
+        for ( int i = index + 1; i < extensionHashes.length && extensionHashes[i] == extensionHashes[index]; i++ )
+        {
+            if ( segment.endsWith( suffixes[extensionStates[i]] ) )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tells whether the path consumed so far is selected, i.e. matched by some include and none of the excludes.
+     * 
+     * @param states The current states of the automaton, must not be {@code null}.
+     * @return {@code true} if the path is selected, {@code false} otherwise.
+     */
+    public boolean isAccepted( int[] states )
+    {
+        if ( fixedExclude )
+        {
+            return false;
+        }
+        boolean included = fixedInclude;
+        for ( int state : states )
+        {
+            if ( excludes[state] )
+            {
+                return false;
+            }
+            included |= includes[state];
+        }
+        return included;
+    }
+
+    /**
+     * Tells whether the path consumed so far followed by the specified segment is selected. This is equivalent to
+     * {@code isAccepted( step( states, segment ) )} but does not need to create the new states.
+     * 
+     * @param states The current states of the automaton, must not be {@code null}.
+     * @param segment The last segment of the path, must not be {@code null}.
+     * @return {@code true} if the path is selected, {@code false} otherwise.
+     */
+    public boolean isAccepted( int[] states, String segment )
+    {
+        if ( fixedExclude )
+        {
+            return false;
+        }
+        boolean included = fixedInclude;
+
+        int[] targets = fixedTargets.get( segment );
+        if ( targets != null )
+        {
+            for ( int target : targets )
+            {
+                if ( excludes[target] )
+                {
+                    return false;
+                }
+                included |= includes[target];
+            }
+        }
+
+        for ( int i = findExtension( segment ); i >= 0; i = nextExtension( i, segment ) )
+        {
+            int target = extensionStates[i] + 1;
+            if ( excludes[target] )
+            {
+                return false;
+            }
+            included |= includes[target];
+        }
+
+        for ( int state : fixedWildcards )
+        {
+            int target = state + 1;
+            if ( ( excludes[target] || ( includes[target] && !included ) ) && matches( state, segment ) )
+            {
+                if ( excludes[target] )
+                {
+                    return false;
+                }
+                included = true;
+            }
+        }
+
+        for ( int state : states )
+        {
+            int target = getTarget( state, segment );
+            if ( target >= 0 )
+            {
+                if ( excludes[target] )
+                {
+                    return false;
+                }
+                included |= includes[target];
+            }
+        }
+
+        int[] candidates = literalStates.get( segment );
+        if ( candidates != null )
+        {
+            for ( int candidate : candidates )
+            {
+                if ( Arrays.binarySearch( states, candidate ) >= 0 )
+                {
+                    if ( excludes[candidate + 1] )
+                    {
+                        return false;
+                    }
+                    included |= includes[candidate + 1];
+                }
+            }
+        }
+
+        return included;
+    }
+
+    /**
+     * Tells whether some path below the path consumed so far could be selected. A "**" state of an exclude whose
+     * closure contains the final state excludes every descendant, otherwise some include needs to be able to consume
+     * more segments.
+     * 
+     * @param states The current states of the automaton, must not be {@code null}.
+     * @return {@code false} if no descendant of the path is selected, {@code true} if some descendant might be.
+     */
+    public boolean isAcceptingDescendants( int[] states )
+    {
+        if ( fixedCovering )
+        {
+            return false;
+        }
+        boolean alive = fixedLive;
+        for ( int state : states )
+        {
+            if ( deep[state] && excludes[state] )
+            {
+                return false;
+            }
+            alive |= live[state];
+        }
+        return alive;
+    }
+
+    /**
+     * Tells whether the specified path is selected.
+     * 
+     * @param path The segments of the path, must not be {@code null}.
+     * @param count The number of leading segments that make up the path.
+     * @return {@code true} if the path is selected, {@code false} otherwise.
+     */
+    public boolean matches( String[] path, int count )
+    {
+        if ( count <= 0 )
+        {
+            return isAccepted( initial );
+        }
+        int[] states = initial;
+        for ( int i = 0; i < count - 1; i++ )
+        {
+            states = step( states, path[i] );
+        }
+        return isAccepted( states, path[count - 1] );
+    }
+
+    private long[] addLazily( long[] set, int state )
+    {
+        if ( set == null )
+        {
+            set = new long[words];
+        }
+        add( set, state );
+        return set;
+    }
+
+    private void add( long[] set, int state )
+    {
+        // the closure of a "**" state includes the next state of its pattern
+        for ( int s = state;; s++ )
+        {
+            set[s >>> 6] |= 1L << s;
+            if ( !deep[s] )
+            {
+                break;
+            }
+        }
+    }
+
+    private static boolean contains( long[] set, int state )
+    {
+        return ( set[state >>> 6] & ( 1L << state ) ) != 0;
+    }
+
+    private int[] toStates( long[] set )
+    {
+        int count = 0;
+        for ( int i = 0; i < set.length; i++ )
+        {
+            set[i] &= ~fixed[i];
+            count += Long.bitCount( set[i] );
+        }
+        if ( count <= 0 )
+        {
+            return NONE;
+        }
+
+        int[] states = new int[count];
+        int index = 0;
+        for ( int i = 0; i < set.length; i++ )
+        {
+            for ( long word = set[i]; word != 0; word &= word - 1 )
+            {
+                states[index++] = ( i << 6 ) + Long.numberOfTrailingZeros( word );
+            }
+        }
+        return states;
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+/**
+ * A compiled pattern for a single path segment, supporting the wildcards '*' and '?'. Matching gives the same results
+ * as {@link SelectorUtils#match(String, String, boolean)} but does not copy the pattern or the matched string. For
+ * case-insensitive matching, the pattern is folded to upper case once and the characters of the matched string are
+ * folded on the fly.
+ */
+final class SegmentPattern
+{
+
+    private final char[] pattern;
+
+    private final boolean caseSensitive;
+
+    private final boolean star;
+
+    public SegmentPattern( String pattern, boolean caseSensitive )
+    {
+        this.caseSensitive = caseSensitive;
+        this.pattern = pattern.toCharArray();
+        if ( !caseSensitive )
+        {
+            for ( int i = 0; i < this.pattern.length; i++ )
+            {
+                this.pattern[i] = Character.toUpperCase( this.pattern[i] );
+            }
+        }
+        this.star = pattern.indexOf( '*' ) >= 0;
+    }
+
+    private boolean different( char pat, char ch )
+    {
+        return pat != ( caseSensitive ? ch : Character.toUpperCase( ch ) );
+    }
+
+    /**
+     * Tells whether the specified segment matches this pattern.
+     * 
+     * @param str The segment to match, must not be {@code null}.
+     * @return {@code true} if the segment matches, {@code false} otherwise.
+     */
+    public boolean matches( String str )
+    {
+        char[] pat = pattern;
+        int patStart = 0;
+        int patEnd = pat.length - 1;
+        int strStart = 0;
+        int strEnd = str.length() - 1;
+        char ch;
+
+        if ( !star )
+        {
+            if ( patEnd != strEnd )
+            {
+                return false;
+            }
+            for ( int i = 0; i <= patEnd; i++ )
+            {
+                ch = pat[i];
+                if ( ch != '?' && different( ch, str.charAt( i ) ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if ( patEnd == 0 )
+        {
+            return true;
+        }
+
+        // characters before the first star
+        while ( ( ch = pat[patStart] ) != '*' && strStart <= strEnd )
+        {
+            if ( ch != '?' && different( ch, str.charAt( strStart ) ) )
+            {
+                return false;
+            }
+            patStart++;
+            strStart++;
+        }
+        if ( strStart > strEnd )
+        {
+            return allStars( patStart, patEnd );
+        }
+
+        // characters after the last star
+        while ( ( ch = pat[patEnd] ) != '*' && strStart <= strEnd )
+        {
+            if ( ch != '?' && different( ch, str.charAt( strEnd ) ) )
+            {
+                return false;
+            }
+            patEnd--;
+            strEnd--;
+        }
+        if ( strStart > strEnd )
+        {
+            return allStars( patStart, patEnd );
+        }
+
+        // the parts between stars, patStart and patEnd always point to a star
+        while ( patStart != patEnd && strStart <= strEnd )
+        {
+            int patNext = -1;
+            for ( int i = patStart + 1; i <= patEnd; i++ )
+            {
+                if ( pat[i] == '*' )
+                {
+                    patNext = i;
+                    break;
+                }
+            }
+            if ( patNext == patStart + 1 )
+            {
+                patStart++;
+                continue;
+            }
+
+            int patLength = patNext - patStart - 1;
+            int strLength = strEnd - strStart + 1;
+            int found = -1;
+            candidates: for ( int i = 0; i <= strLength - patLength; i++ )
+            {
+                for ( int j = 0; j < patLength; j++ )
+                {
+                    ch = pat[patStart + j + 1];
+                    if ( ch != '?' && different( ch, str.charAt( strStart + i + j ) ) )
+                    {
+                        continue candidates;
+                    }
+                }
+                found = strStart + i;
+                break;
+            }
+            if ( found < 0 )
+            {
+                return false;
+            }
+
+            patStart = patNext;
+            strStart = found + patLength;
+        }
+
+        return allStars( patStart, patEnd );
+    }
+
+    private boolean allStars( int start, int end )
+    {
+        for ( int i = start; i <= end; i++ )
+        {
+            if ( pattern[i] != '*' )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String( pattern );
+    }
+
+}
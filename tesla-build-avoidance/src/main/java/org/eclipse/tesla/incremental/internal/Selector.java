@@ -18,4 +18,78 @@ interface Selector
 
     boolean isAncestorOfPotentiallySelected( String pathname );
 
+    /**
+     * Same as {@link #isSelected(String)} but takes the path as a sequence of segments, as maintained by a directory
+     * scan, to spare building the path string.
+     * 
+     * @param segments The segments of the path, must not be {@code null}.
+     * @param count The number of leading segments that make up the path.
+     * @return {@code true} if the path is selected, {@code false} otherwise.
+     */
+    boolean isSelected( String[] segments, int count );
+
+    /**
+     * Same as {@link #isAncestorOfPotentiallySelected(String)} but takes the path as a sequence of segments.
+     * 
+     * @param segments The segments of the path, must not be {@code null}.
+     * @param count The number of leading segments that make up the path.
+     * @return {@code true} if the path could be the ancestor of a selected path, {@code false} otherwise.
+     */
+    boolean isAncestorOfPotentiallySelected( String[] segments, int count );
+
+    /**
+     * Gets the state of the selector for the empty path, i.e. the base directory. A directory scan can advance this
+     * state one segment at a time via {@link #descend(Object, String)} rather than matching the full path of each entry
+     * again. States are immutable and can be shared among threads.
+     * 
+     * @return The state for the empty path, never {@code null}.
+     */
+    Object getInitialState();
+
+    /**
+     * Gets the state for the specified child of the path represented by the given state.
+     * 
+     * @param state The state of the parent path, must not be {@code null}.
+     * @param name The name of the child, must not be {@code null}.
+     * @return The state of the child path, never {@code null}.
+     */
+    Object descend( Object state, String name );
+
+    /**
+     * Tells whether the specified child of the path represented by the given state is selected. Unlike
+     * {@link #descend(Object, String)}, this does not need to create the state of the child.
+     * 
+     * @param state The state of the parent path, must not be {@code null}.
+     * @param name The name of the child, must not be {@code null}.
+     * @return {@code true} if the child path is selected, {@code false} otherwise.
+     */
+    boolean isSelected( Object state, String name );
+
+    /**
+     * Same as {@link #isAncestorOfPotentiallySelected(String[], int)} but takes the state of the path. A directory
+     * scan can skip the whole subtree of a path for which this method returns {@code false}.
+     * 
+     * @param state The state of the path, must not be {@code null}.
+     * @return {@code true} if the path could be the ancestor of a selected path, {@code false} otherwise.
+     */
+    boolean isAncestorOfPotentiallySelected( Object state );
+
+    /**
+     * Gets the paths selected by include patterns without wildcards. If every selected path is named this way, a scan
+     * can simply check for the existence of those paths instead of walking the directory tree.
+     * 
+     * @return The segments of the literal paths, sorted like the entries of a directory scan, or {@code null} if some
+     *         selected paths can only be found by a directory scan.
+     */
+    String[][] getLiteralPaths();
+
+    /**
+     * Gets the directories that contain all selected paths, i.e. the literal leading directories of the include
+     * patterns. A scan can start at these directories instead of listing the directories leading to them.
+     * 
+     * @return The segments of the directories, sorted like the entries of a directory scan and without nested
+     *         directories, or {@code null} if selected paths can reside anywhere below the base directory.
+     */
+    String[][] getRoots();
+
 }
@@ -0,0 +1,104 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.tesla.incremental.PathSet;
+
+/**
+ * Keeps the selectors compiled for the most recently used path sets. A build usually resolves the same path sets
+ * several times, e.g. to scan the inputs and later to filter the messages and errors of the selected inputs during
+ * commit, so compiling the patterns once per path set pays off. The number of cached selectors is bounded such that
+ * long-running hosts like IDEs, which see an open-ended stream of path sets, do not accumulate them.
+ */
+class SelectorCache
+{
+
+    private static final int DEFAULT_MAX_SIZE = 256;
+
+    private final Map<PathSet, Selector> selectors;
+
+    public SelectorCache()
+    {
+        this( DEFAULT_MAX_SIZE );
+    }
+
+    /**
+     * Creates a new cache with the specified capacity.
+     * 
+     * @param maxSize The maximum number of selectors to keep, non-positive to use a default.
+     */
+    public SelectorCache( int maxSize )
+    {
+        final int capacity = ( maxSize > 0 ) ? maxSize : DEFAULT_MAX_SIZE;
+        selectors = new LinkedHashMap<PathSet, Selector>( 64, 0.75f, true )
+        {
+            private static final long serialVersionUID = 4174393256231744405L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<PathSet, Selector> eldest )
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Gets the selector for the specified path set.
+     * 
+     * @param pathSet The path set to get the selector for, must not be {@code null}.
+     * @return The selector, never {@code null}.
+     */
+    public Selector getSelector( PathSet pathSet )
+    {
+        synchronized ( this )
+        {
+            Selector selector = selectors.get( pathSet );
+            if ( selector != null )
+            {
+                return selector;
+            }
+        }
+
+        // compile outside of the lock, a duplicate compilation by a concurrent thread is harmless
+        Selector selector = newSelector( pathSet );
+
+        synchronized ( this )
+        {
+            // path sets are mutable so the cache needs its own copy of the key
+            selectors.put( new PathSet( pathSet ), selector );
+        }
+
+        return selector;
+    }
+
+    /**
+     * Compiles the selector for the specified path set, without caching.
+     * 
+     * @param pathSet The path set to create the selector for, must not be {@code null}.
+     * @return The selector, never {@code null}.
+     */
+    public static Selector newSelector( PathSet pathSet )
+    {
+        Selector selector = new GlobSelector( pathSet );
+        if ( pathSet.isGitIgnoreExcludes() )
+        {
+            selector = new GitIgnoreSelector( selector, pathSet.getBasedir(), pathSet.isCaseSensitive() );
+        }
+        return selector;
+    }
+
+    public synchronized int size()
+    {
+        return selectors.size();
+    }
+
+}
@@ -121,10 +121,21 @@ final class SelectorUtils {
      */
     static boolean matchPatternStart(String[] patDirs, String[] strDirs,
                                      boolean isCaseSensitive) {
+        return matchPatternStart(patDirs, strDirs, strDirs.length,
+                                 isCaseSensitive);
+    }
+
+    /**
+     * Same as {@link #matchPatternStart(String[], String[], boolean)} but
+     * only considers the first <code>strCount</code> elements of the
+     * tokenized path.
+     */
+    static boolean matchPatternStart(String[] patDirs, String[] strDirs,
+                                     int strCount, boolean isCaseSensitive) {
         int patIdxStart = 0;
         int patIdxEnd = patDirs.length - 1;
         int strIdxStart = 0;
-        int strIdxEnd = strDirs.length - 1;
+        int strIdxEnd = strCount - 1;
 
         // up to first '**'
         while (patIdxStart <= patIdxEnd && strIdxStart <= strIdxEnd) {
@@ -206,10 +217,21 @@ final class SelectorUtils {
      */
     static boolean matchPath(String[] tokenizedPattern, String[] strDirs,
                              boolean isCaseSensitive) {
+        return matchPath(tokenizedPattern, strDirs, strDirs.length,
+                         isCaseSensitive);
+    }
+
+    /**
+     * Same as {@link #matchPath(String[], String[], boolean)} but only
+     * considers the first <code>strCount</code> elements of the tokenized
+     * path.
+     */
+    static boolean matchPath(String[] tokenizedPattern, String[] strDirs,
+                             int strCount, boolean isCaseSensitive) {
         int patIdxStart = 0;
         int patIdxEnd = tokenizedPattern.length - 1;
         int strIdxStart = 0;
-        int strIdxEnd = strDirs.length - 1;
+        int strIdxEnd = strCount - 1;
 
         // up to first '**'
         while (patIdxStart <= patIdxEnd && strIdxStart <= strIdxEnd) {
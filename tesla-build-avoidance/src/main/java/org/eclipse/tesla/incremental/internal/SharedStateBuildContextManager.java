@@ -0,0 +1,47 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+
+/**
+ * A build context manager that obtains and stores build states via a {@link BuildStateServer} running on the local
+ * machine. If the service cannot be reached or fails to authenticate itself, the manager permanently falls back to
+ * direct access of the state files. A request that the service refuses or fails to handle, e.g. for a state file
+ * outside of its root directories, falls back to direct access of just that state file.
+ * 
+ * @see DefaultBuildContextManager#STATE_SERVER_PROPERTY
+ */
+public class SharedStateBuildContextManager
+    extends DefaultBuildContextManager
+{
+
+    /**
+     * Creates a new build context manager using the specified server.
+     * 
+     * @param log The logger to use, may be {@code null}.
+     * @param port The loopback port the server listens on.
+     * @param tokenFile The token file written by the server, must not be {@code null}.
+     */
+    public SharedStateBuildContextManager( Logger log, int port, File tokenFile )
+    {
+        super( log );
+        if ( port <= 0 )
+        {
+            throw new IllegalArgumentException( "server port not specified" );
+        }
+        setStateServer( port, tokenFile );
+    }
+
+    boolean isServerAvailable()
+    {
+        return isStateServerAvailable();
+    }
+
+}
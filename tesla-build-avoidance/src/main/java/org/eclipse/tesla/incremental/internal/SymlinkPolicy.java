@@ -0,0 +1,43 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+/**
+ * Specifies how a directory scan deals with symbolic links to directories. Except for {@link #FOLLOW}, the scan
+ * determines the canonical path of each subdirectory to tell links from ordinary directories. Links to files are not
+ * affected.
+ */
+public enum SymlinkPolicy
+{
+
+    /**
+     * Follows every link like an ordinary directory, without any checks. A link to one of its own ancestors makes the
+     * scan walk the same directories over and over until the paths get too long for the file system.
+     */
+    FOLLOW,
+
+    /**
+     * Follows links such that each directory gets scanned at most once. Links that point into the scanned base
+     * directory are not followed since their contents are reached via the real paths, nor are links that point to one
+     * of their own ancestors. Of several links to the same directory outside of the base directory, only the first one
+     * in scan order is followed.
+     */
+    FOLLOW_ONCE,
+
+    /**
+     * Ignores links altogether, i.e. neither reports them as directories nor scans their contents.
+     */
+    SKIP,
+
+    /**
+     * Reports links like ordinary directories but does not scan their contents.
+     */
+    LEAF,
+
+}
@@ -0,0 +1,109 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangeJournalTest
+{
+
+    private File basedir;
+
+    @Before
+    public void init()
+    {
+        String name = getClass().getSimpleName() + UUID.randomUUID().toString().replace( "-", "" );
+        basedir = new File( "target/tests/" + name ).getAbsoluteFile();
+        basedir.mkdirs();
+    }
+
+    @After
+    public void exit()
+        throws Exception
+    {
+        Utils.delete( basedir );
+    }
+
+    @Test
+    public void testGetChangesSince_NotReadyBeforeInitialPoll()
+    {
+        ChangeJournal journal = new ChangeJournal( basedir );
+        assertEquals( 0, journal.getSequence() );
+        assertNull( journal.getChangesSince( journal.getSequence() ) );
+
+        journal.poll();
+        assertEquals( 1, journal.getSequence() );
+        assertEquals( Collections.emptyList(), journal.getChangesSince( 1 ).getPaths() );
+    }
+
+    @Test
+    public void testGetChangesSince_AddedModifiedAndDeletedPaths()
+        throws Exception
+    {
+        File a = Utils.writeBytes( new File( basedir, "a.txt" ), (byte) 0 );
+        File b = Utils.writeBytes( new File( basedir, "sub/b.txt" ), (byte) 0 );
+
+        ChangeJournal journal = new ChangeJournal( basedir );
+        journal.poll();
+        long start = journal.getSequence();
+
+        journal.poll();
+        assertEquals( start, journal.getSequence() );
+
+        Utils.writeBytes( a, (byte) 0, (byte) 1 );
+        journal.poll();
+        long modified = journal.getSequence();
+        assertTrue( modified > start );
+        assertEquals( Collections.singletonList( "a.txt" ), journal.getChangesSince( start ).getPaths() );
+
+        Utils.writeBytes( new File( basedir, "c.txt" ), (byte) 0 );
+        assertTrue( b.delete() );
+        journal.poll();
+        assertEquals( new HashSet<String>( Arrays.asList( "c.txt", "sub" + File.separator + "b.txt" ) ),
+                      new HashSet<String>( journal.getChangesSince( modified ).getPaths() ) );
+        assertEquals( 3, journal.getChangesSince( start ).getPaths().size() );
+        assertEquals( journal.getSequence(), journal.getChangesSince( start ).getSequence() );
+    }
+
+    @Test
+    public void testPoll_TracksOnlySelectedPaths()
+        throws Exception
+    {
+        Utils.writeBytes( new File( basedir, "a.txt" ), (byte) 0 );
+        File vcs = Utils.writeBytes( new File( basedir, ".git/index" ), (byte) 0 );
+        File excluded = Utils.writeBytes( new File( basedir, "node_modules/x.js" ), (byte) 0 );
+
+        Selector selector =
+            new GlobSelector( Collections.<String> emptyList(), Collections.singletonList( "node_modules/**" ), true,
+                              true );
+        ChangeJournal journal = new ChangeJournal( basedir, selector, null );
+        journal.poll();
+        long start = journal.getSequence();
+
+        Utils.writeBytes( vcs, (byte) 0, (byte) 1 );
+        Utils.writeBytes( excluded, (byte) 0, (byte) 1 );
+        assertFalse( journal.poll() );
+        assertEquals( start, journal.getSequence() );
+
+        Utils.writeBytes( new File( basedir, "b.txt" ), (byte) 0 );
+        assertTrue( journal.poll() );
+        assertEquals( Collections.singletonList( "b.txt" ), journal.getChangesSince( start ).getPaths() );
+    }
+
+}
@@ -11,12 +11,23 @@ package org.eclipse.tesla.incremental.internal;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.eclipse.tesla.incremental.BuildContext;
+import org.eclipse.tesla.incremental.BuildContextScope;
 import org.eclipse.tesla.incremental.PathSet;
 import org.junit.After;
 import org.junit.Before;
@@ -116,4 +127,657 @@ public class DefaultBuildContextManagerTest
         ctx.commit();
         ctx.close();
     }
+
+    @Test
+    public void testPreloadContext_NewContextUsesPreloadedState()
+    {
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value" );
+        ctx.commit();
+        ctx.close();
+
+        DefaultBuildContextManager manager2 = new DefaultBuildContextManager();
+        manager2.preloadContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        assertEquals( 1, manager2.getPendingStateCount() );
+        BuildContext ctx2 = manager2.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        assertEquals( 0, manager2.getPendingStateCount() );
+        try
+        {
+            assertEquals( "value", ctx2.getValue( "key" ) );
+        }
+        finally
+        {
+            ctx2.close();
+        }
+    }
+
+    @Test
+    public void testPreloadContext_DetectStaleStateFile()
+    {
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "old" );
+        ctx.commit();
+        ctx.close();
+
+        DefaultBuildContextManager manager2 = new DefaultBuildContextManager();
+        manager2.preloadContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+
+        DefaultBuildContextManager manager3 = new DefaultBuildContextManager();
+        BuildContext ctx3 = manager3.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx3.setValue( "key", "a-longer-new-value" );
+        ctx3.commit();
+        ctx3.close();
+
+        BuildContext ctx2 = manager2.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertEquals( "a-longer-new-value", ctx2.getValue( "key" ) );
+        }
+        finally
+        {
+            ctx2.close();
+        }
+    }
+
+    @Test
+    public void testNewContext_CloseBeforeStateIsNeededWipesBuildState()
+    {
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value" );
+        ctx.commit();
+        ctx.close();
+
+        DefaultBuildContextManager manager2 = new DefaultBuildContextManager();
+        ctx = manager2.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.close();
+
+        ctx = manager2.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertNull( ctx.getValue( "key" ) );
+        }
+        finally
+        {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void testWrapExecutorService_TasksParticipateInBuildContextOfSubmitter()
+        throws Exception
+    {
+        final Collection<File> updatedOutputs = Collections.synchronizedList( new ArrayList<File>() );
+
+        final DefaultBuildContextManager manager = new DefaultBuildContextManager()
+        {
+            @Override
+            protected void outputUpdated( Collection<File> outputs )
+            {
+                updatedOutputs.addAll( outputs );
+            }
+        };
+
+        final File output = new File( outputDirectory, "output.txt" );
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                manager.addOutput( null, output );
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            // start worker thread before build context gets created
+            executor.submit( new Runnable()
+            {
+                public void run()
+                {
+                }
+            } ).get();
+
+            BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+            try
+            {
+                executor.submit( task ).get();
+                assertEquals( Collections.singletonList( output ), updatedOutputs );
+                updatedOutputs.clear();
+
+                manager.wrapExecutorService( executor ).submit( task ).get();
+                assertEquals( Collections.emptyList(), updatedOutputs );
+
+                executor.submit( task ).get();
+                assertEquals( Collections.singletonList( output ), updatedOutputs );
+                updatedOutputs.clear();
+
+                ctx.commit();
+                assertEquals( Collections.singletonList( output ), updatedOutputs );
+            }
+            finally
+            {
+                ctx.close();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEnterContext_ScopeRestoresPreviouslyActiveContexts()
+        throws Exception
+    {
+        final Collection<File> updatedOutputs = Collections.synchronizedList( new ArrayList<File>() );
+
+        final DefaultBuildContextManager manager = new DefaultBuildContextManager()
+        {
+            @Override
+            protected void outputUpdated( Collection<File> outputs )
+            {
+                updatedOutputs.addAll( outputs );
+            }
+        };
+
+        final File output = new File( outputDirectory, "output.txt" );
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            executor.submit( new Runnable()
+            {
+                public void run()
+                {
+                }
+            } ).get();
+
+            final BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+            try
+            {
+                executor.submit( new Runnable()
+                {
+                    public void run()
+                    {
+                        BuildContextScope scope = manager.enterContext( ctx );
+                        try
+                        {
+                            manager.addOutput( null, output );
+                        }
+                        finally
+                        {
+                            scope.close();
+                        }
+                        scope.close();
+                    }
+                } ).get();
+                assertEquals( Collections.emptyList(), updatedOutputs );
+
+                executor.submit( new Runnable()
+                {
+                    public void run()
+                    {
+                        manager.addOutput( null, output );
+                    }
+                } ).get();
+                assertEquals( Collections.singletonList( output ), updatedOutputs );
+            }
+            finally
+            {
+                ctx.close();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testIsProcessingRequired_UsesGivenFileKind()
+        throws Exception
+    {
+        File file = new File( inputDirectory, "file.txt" );
+        Utils.writeBytes( file, (byte) 1 );
+        File dir = new File( inputDirectory, "dir" );
+        dir.mkdirs();
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            PathSet pathSet = new PathSet( inputDirectory ).setKind( PathSet.Kind.FILES_AND_DIRECTORIES );
+            for ( String path : ctx.getInputs( pathSet, false ) )
+            {
+                ctx.addOutputs( new File( inputDirectory, path ) );
+            }
+            ctx.commit();
+        }
+        finally
+        {
+            ctx.close();
+        }
+
+        BuildState buildState = manager.getCachedStates().iterator().next();
+
+        assertFalse( buildState.isProcessingRequired( file, false ) );
+        assertTrue( buildState.isProcessingRequired( file, true ) );
+
+        assertFalse( buildState.isProcessingRequired( dir, true ) );
+        assertTrue( buildState.isProcessingRequired( dir, false ) );
+
+        // the kind is taken as given, i.e. the file system is not consulted for unknown paths either
+        File unknown = new File( inputDirectory, "unknown" );
+        assertTrue( buildState.isProcessingRequired( unknown, true ) );
+        assertTrue( buildState.isProcessingRequired( unknown, false ) );
+        unknown.mkdirs();
+        assertTrue( buildState.isProcessingRequired( unknown, true ) );
+    }
+
+    @Test
+    public void testStatistics_TracksOpenContextsAndTimers()
+    {
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        BuildContextManagerStatistics statistics = manager.statistics;
+
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertEquals( 1, statistics.getOpenContextCount() );
+            assertEquals( Thread.currentThread().getName() + ": 1", statistics.getOpenContextsPerThread()[0] );
+
+            ctx.getInputs( new PathSet( inputDirectory ), false );
+            ctx.commit();
+        }
+        finally
+        {
+            ctx.close();
+        }
+
+        assertEquals( 0, statistics.getOpenContextCount() );
+        assertEquals( 1, statistics.getScanCount() );
+        assertEquals( 1, statistics.getSaveCount() );
+        assertEquals( 1, statistics.getCommitCount() );
+        assertEquals( 1, statistics.getCachedStateCount() );
+        assertTrue( statistics.getStateFileBytes() > 0 );
+
+        statistics.evictBuildStates();
+        assertEquals( 0, statistics.getCachedStateCount() );
+
+        statistics.resetStatistics();
+        assertEquals( 0, statistics.getCommitCount() );
+    }
+
+    @Test
+    public void testStatistics_MBeanRegisteredOnlyIfEnabledAndUnregisteredOnDispose()
+        throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName( "org.eclipse.tesla.incremental:type=BuildContextManager,*" );
+
+        new DefaultBuildContextManager();
+        assertEquals( 0, server.queryNames( pattern, null ).size() );
+
+        System.setProperty( DefaultBuildContextManager.JMX_PROPERTY, "true" );
+        try
+        {
+            DefaultBuildContextManager manager = new DefaultBuildContextManager();
+            Set<ObjectName> names = server.queryNames( pattern, null );
+            assertEquals( 1, names.size() );
+            ObjectName name = names.iterator().next();
+            try
+            {
+                BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+                try
+                {
+                    assertEquals( Integer.valueOf( 1 ), server.getAttribute( name, "OpenContextCount" ) );
+                }
+                finally
+                {
+                    ctx.close();
+                }
+            }
+            finally
+            {
+                manager.dispose();
+            }
+            assertFalse( server.isRegistered( name ) );
+        }
+        finally
+        {
+            System.clearProperty( DefaultBuildContextManager.JMX_PROPERTY );
+        }
+    }
+
+    @Test
+    public void testParallelScan_ReportsSameInputsSortedPerDirectory()
+        throws Exception
+    {
+        String[] paths =
+            { "z.txt", "a/y.txt", "a/x.bin", "b/c/w.txt", "b/v.txt", "skip/u.txt", "a/d/e/t.txt", "m.txt" };
+        for ( String path : paths )
+        {
+            Utils.writeBytes( new File( inputDirectory, path ), (byte) 0 );
+        }
+        PathSet pathSet = new PathSet( inputDirectory, new String[] { "**/*.txt" }, new String[] { "skip/**" } );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        manager.setParallelScan( true );
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            List<String> inputs = new ArrayList<String>( ctx.getInputs( pathSet, true ) );
+            List<String> expected = new ArrayList<String>();
+            for ( String path : new String[] { "a/d/e/t.txt", "a/y.txt", "b/c/w.txt", "b/v.txt", "m.txt", "z.txt" } )
+            {
+                expected.add( path.replace( '/', File.separatorChar ) );
+            }
+            assertEquals( expected, inputs );
+        }
+        finally
+        {
+            ctx.close();
+        }
+    }
+
+    private Collection<String> getListedInputs( PathSet pathSet )
+    {
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            // process all listed inputs regardless of their state
+            Collection<String> inputs = ctx.getInputs( pathSet, true );
+            ctx.commit();
+            return inputs;
+        }
+        finally
+        {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void testDirectoryListing_ReusedForUnmodifiedDirectory()
+        throws Exception
+    {
+        long timestamp = ( System.currentTimeMillis() / 1000 - 60 ) * 1000;
+        PathSet pathSet = new PathSet( inputDirectory );
+
+        Utils.writeBytes( new File( inputDirectory, "a.txt" ), (byte) 0 );
+        inputDirectory.setLastModified( timestamp );
+        assertEquals( Collections.singleton( "a.txt" ), new HashSet<String>( getListedInputs( pathSet ) ) );
+
+        Utils.writeBytes( new File( inputDirectory, "b.txt" ), (byte) 0 );
+        inputDirectory.setLastModified( timestamp );
+        assertEquals( Collections.singleton( "a.txt" ), new HashSet<String>( getListedInputs( pathSet ) ) );
+
+        inputDirectory.setLastModified( timestamp + 1000 );
+        assertEquals( new HashSet<String>( Arrays.asList( "a.txt", "b.txt" ) ),
+                      new HashSet<String>( getListedInputs( pathSet ) ) );
+    }
+
+    @Test
+    public void testDirectoryListing_DroppedOnceDirectoryIsNoLongerScanned()
+        throws Exception
+    {
+        File dirA = new File( inputDirectory, "a" );
+        File dirB = new File( inputDirectory, "b" );
+        Utils.writeBytes( new File( dirA, "a.txt" ), (byte) 0 );
+        Utils.writeBytes( new File( dirB, "b.txt" ), (byte) 0 );
+
+        getListedInputs( new PathSet( inputDirectory ) );
+        File stateFile = stateDirectory.listFiles()[0];
+        assertTrue( BuildState.load( stateFile ).getListedDirectories().contains( dirB ) );
+
+        getListedInputs( new PathSet( inputDirectory, new String[] { "a/**" }, null ) );
+        Collection<File> listed = BuildState.load( stateFile ).getListedDirectories();
+        assertTrue( listed.toString(), listed.contains( dirA ) );
+        assertFalse( listed.toString(), listed.contains( dirB ) );
+    }
+
+    @Test
+    public void testDirectoryListing_NotReusedForRacilyModifiedDirectory()
+        throws Exception
+    {
+        PathSet pathSet = new PathSet( inputDirectory );
+
+        Utils.writeBytes( new File( inputDirectory, "a.txt" ), (byte) 0 );
+        long timestamp = inputDirectory.lastModified();
+        assertEquals( Collections.singleton( "a.txt" ), new HashSet<String>( getListedInputs( pathSet ) ) );
+
+        Utils.writeBytes( new File( inputDirectory, "b.txt" ), (byte) 0 );
+        inputDirectory.setLastModified( timestamp );
+        assertEquals( new HashSet<String>( Arrays.asList( "a.txt", "b.txt" ) ),
+                      new HashSet<String>( getListedInputs( pathSet ) ) );
+    }
+
+    @Test
+    public void testScanCache_PathSetsOfSameBasedirShareListings()
+        throws Exception
+    {
+        Utils.writeBytes( new File( inputDirectory, "sub/a.proto" ), (byte) 0 );
+        Utils.writeBytes( new File( inputDirectory, "sub/a.json" ), (byte) 0 );
+        PathSet protos = new PathSet( inputDirectory, new String[] { "**/*.proto" }, null );
+        PathSet jsons = new PathSet( inputDirectory, new String[] { "**/*.json" }, null );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertEquals( Collections.singletonList( "sub" + File.separator + "a.proto" ),
+                          ctx.getInputs( protos, true ) );
+
+            // not reported to the build context, hence not seen by scans during the same build
+            Utils.writeBytes( new File( inputDirectory, "sub/b.json" ), (byte) 0 );
+
+            assertEquals( Collections.singletonList( "sub" + File.separator + "a.json" ),
+                          ctx.getInputs( jsons, true ) );
+        }
+        finally
+        {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void testScanCache_OutputsInvalidateListingsOfTheirParents()
+        throws Exception
+    {
+        Utils.writeBytes( new File( inputDirectory, "a.txt" ), (byte) 0 );
+        PathSet pathSet = new PathSet( inputDirectory, new String[] { "**/*.txt" }, null );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        BuildContext ctx = manager.newContext( inputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertEquals( Collections.singletonList( "a.txt" ), ctx.getInputs( pathSet, true ) );
+
+            ctx.newOutputStream( new File( inputDirectory, "b.txt" ) ).close();
+            ctx.addOutput( null, Utils.writeBytes( new File( inputDirectory, "gen/sub/c.txt" ), (byte) 0 ) );
+
+            String generated = "gen" + File.separator + "sub" + File.separator + "c.txt";
+            assertEquals( new HashSet<String>( Arrays.asList( "a.txt", "b.txt", generated ) ),
+                          new HashSet<String>( ctx.getInputs( pathSet, true ) ) );
+        }
+        finally
+        {
+            ctx.close();
+        }
+    }
+
+    private Collection<String> getInputs( DefaultBuildContextManager manager, PathSet pathSet )
+    {
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            Collection<String> inputs = ctx.getInputs( pathSet, false );
+            ctx.commit();
+            return new HashSet<String>( inputs );
+        }
+        finally
+        {
+            ctx.close();
+        }
+    }
+
+    @Test
+    public void testScanSummary_UnmodifiedDirectoriesAreNotListedAgain()
+        throws Exception
+    {
+        long timestamp = ( System.currentTimeMillis() / 1000 - 60 ) * 1000;
+        PathSet pathSet = new PathSet( inputDirectory );
+
+        Utils.writeBytes( new File( inputDirectory, "a.txt" ), (byte) 0 );
+        File b = Utils.writeBytes( new File( inputDirectory, "sub/b.txt" ), (byte) 0 );
+        b.getParentFile().setLastModified( timestamp );
+        inputDirectory.setLastModified( timestamp );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        manager.setScanSummary( true );
+
+        String pathB = "sub" + File.separator + "b.txt";
+        assertEquals( new HashSet<String>( Arrays.asList( "a.txt", pathB ) ), getInputs( manager, pathSet ) );
+        File stateFile = manager.getStateFile( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ScanSummary summary = BuildState.load( stateFile ).getScanSummary( pathSet );
+        assertEquals( "2 directories, 2 paths", String.valueOf( summary ) );
+
+        // modifying a file leaves its directory untouched but must still be noticed
+        Utils.writeBytes( b, (byte) 0, (byte) 1 );
+        // adding a file without updating the directory timestamp can only be noticed by a scan
+        Utils.writeBytes( new File( inputDirectory, "c.txt" ), (byte) 0 );
+        inputDirectory.setLastModified( timestamp );
+        assertEquals( Collections.singleton( pathB ), getInputs( manager, pathSet ) );
+
+        inputDirectory.setLastModified( timestamp + 1000 );
+        assertEquals( Collections.singleton( "c.txt" ), getInputs( manager, pathSet ) );
+    }
+
+    @Test
+    public void testScanSummary_EditedIgnoreFileIsNoticed()
+        throws Exception
+    {
+        long timestamp = ( System.currentTimeMillis() / 1000 - 60 ) * 1000;
+        PathSet pathSet = new PathSet( inputDirectory ).setGitIgnoreExcludes( true );
+
+        // make the input directory the root of a work tree, otherwise the ignore files of this project would apply
+        new File( inputDirectory, ".git" ).mkdirs();
+        File ignoreFile = Utils.writeBytes( new File( inputDirectory, ".gitignore" ), "*.gen\n".getBytes( "UTF-8" ) );
+        Utils.writeBytes( new File( inputDirectory, "a.txt" ), (byte) 0 );
+        Utils.writeBytes( new File( inputDirectory, "b.gen" ), (byte) 0 );
+        ignoreFile.setLastModified( timestamp );
+        inputDirectory.setLastModified( timestamp );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        manager.setScanSummary( true );
+
+        assertEquals( Collections.singleton( "a.txt" ), getInputs( manager, pathSet ) );
+
+        assertTrue( ignoreFile.delete() );
+        Utils.writeBytes( ignoreFile, "*.tmp\n".getBytes( "UTF-8" ) );
+        ignoreFile.setLastModified( timestamp + 1000 );
+        inputDirectory.setLastModified( timestamp );
+        assertEquals( Collections.singleton( "b.gen" ), getInputs( manager, pathSet ) );
+    }
+
+    @Test
+    public void testChangeSource_IncrementalBuildExaminesOnlyListedPaths()
+        throws Exception
+    {
+        File a = Utils.writeBytes( new File( inputDirectory, "a.txt" ), (byte) 0 );
+        File b = Utils.writeBytes( new File( inputDirectory, "b.txt" ), (byte) 0 );
+        File c = Utils.writeBytes( new File( inputDirectory, "c.txt" ), (byte) 0 );
+        File listFile = new File( stateDirectory, "changes.txt" );
+        PathSet pathSet = new PathSet( inputDirectory );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        manager.setChangeSource( new FileListChangeSource( listFile, inputDirectory.getParentFile() ) );
+
+        // not scanned before, so the change source must not be trusted yet
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        assertEquals( 3, ctx.getInputs( pathSet, false ).size() );
+        File outputC = new File( outputDirectory, "c.out" );
+        ctx.addOutput( c, Utils.writeBytes( outputC, (byte) 0 ) );
+        ctx.commit();
+        ctx.close();
+
+        Utils.writeBytes( a, (byte) 0, (byte) 1 );
+        Utils.writeBytes( b, (byte) 0, (byte) 1 );
+        assertTrue( c.delete() );
+        String dir = inputDirectory.getName();
+        Utils.writeBytes( listFile, ( dir + "/b.txt\n\n" + dir + "/c.txt\nother/d.txt\n" ).getBytes( "UTF-8" ) );
+
+        ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        assertEquals( Collections.singletonList( "b.txt" ), ctx.getInputs( pathSet, false ) );
+        ctx.commit();
+        ctx.close();
+        assertFalse( outputC.exists() );
+
+        manager.setChangeSource( null );
+        ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        assertEquals( Collections.singletonList( "a.txt" ), ctx.getInputs( pathSet, false ) );
+        ctx.close();
+    }
+
+    @Test
+    public void testFileListChangeSource_RereadsChangedListAndKeepsNamesVerbatim()
+        throws Exception
+    {
+        File listFile = new File( stateDirectory, "changes.txt" );
+        Utils.writeBytes( listFile, "a.txt\n".getBytes( "UTF-8" ) );
+        FileListChangeSource source = new FileListChangeSource( listFile, inputDirectory );
+        assertEquals( Collections.singletonList( "a.txt" ), source.getChangedPaths( inputDirectory ) );
+
+        assertTrue( listFile.delete() );
+        String lines = " b.txt \r\n\"sp\\303\\244ce\\t\\\"q\\\".txt\"\n";
+        Utils.writeBytes( listFile, lines.getBytes( "UTF-8" ) );
+        assertEquals( Arrays.asList( " b.txt ", "sp\u00e4ce\t\"q\".txt" ), source.getChangedPaths( inputDirectory ) );
+    }
+
+    @Test
+    public void testChangeJournal_IncrementalBuildExaminesOnlyChangedPaths()
+        throws Exception
+    {
+        File a = Utils.writeBytes( new File( inputDirectory, "a.txt" ), (byte) 0 );
+        Utils.writeBytes( new File( inputDirectory, "b.txt" ), (byte) 0 );
+        PathSet pathSet = new PathSet( inputDirectory );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        manager.setChangeJournal( true );
+        try
+        {
+            ChangeJournal journal = manager.getChangeJournal( pathSet );
+            journal.poll();
+
+            BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+            assertEquals( 2, ctx.getInputs( pathSet, false ).size() );
+            ctx.commit();
+            ctx.close();
+
+            Utils.writeBytes( a, (byte) 0, (byte) 1 );
+            journal.poll();
+
+            ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+            assertEquals( Collections.singletonList( "a.txt" ),
+                          new ArrayList<String>( ctx.getInputs( pathSet, false ) ) );
+            ctx.commit();
+            ctx.close();
+
+            ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+            assertEquals( 0, ctx.getInputs( pathSet, false ).size() );
+            ctx.commit();
+            ctx.close();
+        }
+        finally
+        {
+            manager.setChangeJournal( false );
+        }
+    }
+
 }
@@ -0,0 +1,90 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Measures time and heap allocation of a directory scan over a generated tree, i.e. the hot loop of a no-op build. Run
+ * via {@code main()} with the optional arguments {@code <directories> <files per directory> <iterations>}. Allocation
+ * is only reported on JVMs that support per-thread allocation accounting.
+ */
+public class DirectoryScanBenchmark
+{
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        int dirs = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 500;
+        int files = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : 100;
+        int iterations = ( args.length > 2 ) ? Integer.parseInt( args[2] ) : 50;
+
+        File basedir = new File( "target/benchmarks/scan-" + dirs + "x" + files ).getAbsoluteFile();
+        if ( !basedir.isDirectory() )
+        {
+            for ( int i = 0; i < dirs; i++ )
+            {
+                File dir = new File( basedir, "pkg" + ( i % 10 ) + "/sub" + i );
+                dir.mkdirs();
+                for ( int j = 0; j < files; j++ )
+                {
+                    new File( dir, "File" + j + ( j % 4 == 0 ? ".txt" : ".java" ) ).createNewFile();
+                }
+            }
+        }
+
+        Selector selector =
+            new GlobSelector( Arrays.asList( "**/*.java" ), Collections.singleton( "pkg9/**" ), true, true );
+
+        final int[] selected = new int[1];
+        DirectoryScan scan = null;
+        for ( int i = 0; i < iterations / 5 + 1; i++ )
+        {
+            scan = newScan( basedir, selector, selected );
+            scan.run();
+        }
+
+        long bytesBefore = Utils.getAllocatedBytes();
+        long start = System.nanoTime();
+        selected[0] = 0;
+        for ( int i = 0; i < iterations; i++ )
+        {
+            scan = newScan( basedir, selector, selected );
+            scan.run();
+        }
+        long nanos = System.nanoTime() - start;
+        long bytesAfter = Utils.getAllocatedBytes();
+
+        int entries = dirs * files;
+        System.out.println( "Scanned " + entries + " files, " + selected[0] / iterations + " selected" );
+        System.out.println( "Time: " + nanos / iterations / 1000 + " us/scan, " + nanos / iterations / entries
+            + " ns/entry" );
+        if ( bytesBefore >= 0 && bytesAfter >= 0 )
+        {
+            long bytes = bytesAfter - bytesBefore;
+            System.out.println( "Allocated: " + bytes / iterations + " bytes/scan, " + bytes / iterations / entries
+                + " bytes/entry" );
+        }
+    }
+
+    private static DirectoryScan newScan( File basedir, Selector selector, final int[] selected )
+    {
+        return new DirectoryScan( basedir, selector, false, true )
+        {
+            @Override
+            protected void onItem( String pathname, File file )
+            {
+                selected[0]++;
+            }
+        };
+    }
+
+}
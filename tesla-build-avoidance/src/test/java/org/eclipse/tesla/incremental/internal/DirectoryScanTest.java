@@ -0,0 +1,291 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirectoryScanTest
+{
+
+    private File basedir;
+
+    private final List<File> links = new ArrayList<File>();
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        String name = getClass().getSimpleName() + UUID.randomUUID().toString().replace( "-", "" );
+        basedir = new File( "target/tests/" + name ).getAbsoluteFile();
+        for ( String path : new String[] { "pom.xml", "src/main/java/A.java", "src/main/java/p/B.java",
+            "src/main/resources/a.properties", "src/test/java/ATest.java", "src/test/java/.gitignore", "lib/x.jar" } )
+        {
+            Utils.writeBytes( new File( basedir, path.replace( '/', File.separatorChar ) ), (byte) 0 );
+        }
+    }
+
+    @After
+    public void exit()
+        throws Exception
+    {
+        // the recursive deletion would follow the links
+        for ( File link : links )
+        {
+            link.delete();
+        }
+        Utils.delete( basedir );
+    }
+
+    private static class RecordingScan
+        extends DirectoryScan
+    {
+
+        final List<String> paths = new ArrayList<String>();
+
+        final List<File> listed = new ArrayList<File>();
+
+        RecordingScan( File basedir, Selector selector, boolean includeDirectories )
+        {
+            super( basedir, selector, includeDirectories, true );
+        }
+
+        @Override
+        protected DirectoryListing list( File dir )
+        {
+            listed.add( dir );
+            return super.list( dir );
+        }
+
+        @Override
+        protected void onItem( String pathname, File file )
+        {
+            paths.add( pathname.replace( File.separatorChar, '/' ) );
+        }
+
+    }
+
+    private RecordingScan scan( Collection<String> includes, boolean includeDirectories )
+    {
+        RecordingScan scan =
+            new RecordingScan( basedir, new GlobSelector( includes, null, true, true ), includeDirectories );
+        scan.run();
+        return scan;
+    }
+
+    private List<String> walk( Collection<String> includes, boolean includeDirectories )
+    {
+        // case-insensitive selection disables all shortcuts
+        RecordingScan scan =
+            new RecordingScan( basedir, new GlobSelector( includes, null, true, false ), includeDirectories );
+        scan.run();
+        return scan.paths;
+    }
+
+    @Test
+    public void testLiteralIncludes_CheckedWithoutListingDirectories()
+    {
+        Collection<String> includes =
+            Arrays.asList( "src/main/java/p/B.java", "pom.xml", "missing.txt", "src/main", "src/test/java/.gitignore" );
+
+        RecordingScan scan = scan( includes, true );
+        assertEquals( Collections.<File> emptyList(), scan.listed );
+        assertEquals( Arrays.asList( "pom.xml", "src/main", "src/main/java/p/B.java" ), scan.paths );
+        assertEquals( walk( includes, true ), scan.paths );
+
+        scan = scan( includes, false );
+        assertEquals( Arrays.asList( "pom.xml", "src/main/java/p/B.java" ), scan.paths );
+        assertEquals( walk( includes, false ), scan.paths );
+    }
+
+    @Test
+    public void testMixedIncludes_ScanStartsAtLiteralPrefixes()
+    {
+        Collection<String> includes =
+            Arrays.asList( "src/main/**/*.java", "src/main/resources/", "src/test/java/*.java", "lib/*.jar" );
+
+        RecordingScan scan = scan( includes, true );
+        assertEquals( Arrays.asList( new File( basedir, "lib" ), new File( basedir, "src/main" ),
+                                     new File( basedir, "src/main/java" ), new File( basedir, "src/main/java/p" ),
+                                     new File( basedir, "src/main/resources" ), new File( basedir, "src/test/java" ) ),
+                      scan.listed );
+        assertEquals( walk( includes, true ), scan.paths );
+
+        scan = scan( includes, false );
+        assertEquals( Arrays.asList( "lib/x.jar", "src/main/java/A.java", "src/main/java/p/B.java",
+                                     "src/main/resources/a.properties", "src/test/java/ATest.java" ), scan.paths );
+        assertEquals( walk( includes, false ), scan.paths );
+    }
+
+    @Test
+    public void testMixedIncludes_RootThatIsFileSelected()
+    {
+        // "pom.xml/" denotes a directory but just like during a full walk, it also matches the plain file
+        Collection<String> includes = Arrays.asList( "pom.xml/", "src/main/**", "lib/*.jar" );
+
+        RecordingScan scan = scan( includes, true );
+        assertEquals( Arrays.asList( "lib/x.jar", "pom.xml", "src/main", "src/main/java", "src/main/java/A.java",
+                                     "src/main/java/p", "src/main/java/p/B.java", "src/main/resources",
+                                     "src/main/resources/a.properties" ), scan.paths );
+        assertEquals( walk( includes, true ), scan.paths );
+
+        scan = scan( includes, false );
+        assertEquals( walk( includes, false ), scan.paths );
+        assertTrue( scan.paths.toString(), scan.paths.contains( "pom.xml" ) );
+    }
+
+    @Test
+    public void testWalk_SkipsSubtreesWithoutSelectedPaths()
+    {
+        RecordingScan scan =
+            new RecordingScan( basedir, new GlobSelector( Arrays.asList( "*/*/java/*.java" ), null, true, false ),
+                               false );
+        scan.run();
+        assertEquals( Arrays.asList( basedir, new File( basedir, "lib" ), new File( basedir, "src" ),
+                                     new File( basedir, "src/main" ), new File( basedir, "src/main/java" ),
+                                     new File( basedir, "src/test" ), new File( basedir, "src/test/java" ) ),
+                      scan.listed );
+        assertEquals( Arrays.asList( "src/main/java/A.java", "src/test/java/ATest.java" ), scan.paths );
+
+        Collection<String> excludes = Arrays.asList( "**/test/**", "lib/" );
+        Selector selector = new GlobSelector( Arrays.asList( "**/*.java" ), excludes, true, false );
+        scan = new RecordingScan( basedir, selector, false );
+        scan.run();
+        assertEquals( Arrays.asList( basedir, new File( basedir, "src" ), new File( basedir, "src/main" ),
+                                     new File( basedir, "src/main/java" ), new File( basedir, "src/main/java/p" ),
+                                     new File( basedir, "src/main/resources" ) ), scan.listed );
+        assertEquals( Arrays.asList( "src/main/java/A.java", "src/main/java/p/B.java" ), scan.paths );
+    }
+
+    private List<String> scanDirectories( Selector selector, boolean includeFiles, Executor executor )
+    {
+        final List<String> paths = new ArrayList<String>();
+        new DirectoryScan( basedir, selector, true, includeFiles, executor )
+        {
+            @Override
+            protected void onDirectory( String pathname, File file )
+            {
+                paths.add( pathname.replace( File.separatorChar, '/' ) );
+            }
+        }.run();
+        return paths;
+    }
+
+    @Test
+    public void testDirectoriesOnly_SameDirectoriesAsFullScan()
+        throws Exception
+    {
+        Utils.writeBytes( new File( basedir, "src/main/java/p/q/C.java" ), (byte) 0 );
+        Selector selector = new GlobSelector( Arrays.asList( "src/**" ), Arrays.asList( "**/resources" ), true, false );
+
+        List<String> expected = scanDirectories( selector, true, null );
+        assertEquals( Arrays.asList( "src", "src/main", "src/main/java", "src/main/java/p", "src/main/java/p/q",
+                                     "src/test", "src/test/java" ), expected );
+        assertEquals( expected, scanDirectories( selector, false, null ) );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            assertEquals( expected, scanDirectories( selector, true, executor ) );
+            assertEquals( expected, scanDirectories( selector, false, executor ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    private List<String> scan( File basedir, SymlinkPolicy symlinks, Executor executor )
+    {
+        final List<String> paths = new ArrayList<String>();
+        Selector selector = new GlobSelector( null, null, true, false );
+        new DirectoryScan( basedir, selector, true, true, executor, symlinks )
+        {
+            @Override
+            protected void onItem( String pathname, File file )
+            {
+                paths.add( pathname.replace( File.separatorChar, '/' ) );
+            }
+        }.run();
+        return paths;
+    }
+
+    private void link( String link, String target )
+    {
+        try
+        {
+            File file = new File( basedir, link );
+            Files.createSymbolicLink( file.toPath(), new File( target ).toPath() );
+            links.add( file );
+        }
+        catch ( IOException e )
+        {
+            Assume.assumeNoException( e );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            Assume.assumeNoException( e );
+        }
+    }
+
+    @Test
+    public void testSymlinks_CyclesAndDuplicatesScannedOnce()
+    {
+        link( "src/loop", "." );
+        link( "src/lib1", "../lib" );
+        link( "src/lib2", "../lib" );
+        link( "src/main/alias", "java" );
+        File src = new File( basedir, "src" );
+
+        List<String> once = scan( src, SymlinkPolicy.FOLLOW_ONCE, null );
+        assertEquals( Arrays.asList( "", "lib1", "lib1/x.jar", "lib2", "loop", "main", "main/alias", "main/java",
+                                     "main/java/A.java", "main/java/p", "main/java/p/B.java", "main/resources",
+                                     "main/resources/a.properties", "test", "test/java", "test/java/ATest.java" ),
+                      once );
+
+        List<String> leaf = scan( src, SymlinkPolicy.LEAF, null );
+        List<String> expected = new ArrayList<String>( once );
+        expected.remove( "lib1/x.jar" );
+        assertEquals( expected, leaf );
+
+        List<String> skip = scan( src, SymlinkPolicy.SKIP, null );
+        expected.removeAll( Arrays.asList( "lib1", "lib2", "loop", "main/alias" ) );
+        assertEquals( expected, skip );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            assertEquals( once, scan( src, SymlinkPolicy.FOLLOW_ONCE, executor ) );
+            assertEquals( leaf, scan( src, SymlinkPolicy.LEAF, executor ) );
+            assertEquals( skip, scan( src, SymlinkPolicy.SKIP, executor ) );
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+}
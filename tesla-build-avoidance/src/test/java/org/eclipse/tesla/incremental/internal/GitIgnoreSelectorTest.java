@@ -0,0 +1,180 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GitIgnoreSelectorTest
+{
+
+    private File basedir;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        String name = getClass().getSimpleName() + UUID.randomUUID().toString().replace( "-", "" );
+        basedir = new File( "target/tests/" + name ).getAbsoluteFile();
+        for ( String path : new String[] { "pom.xml", "debug.log", "src/main/java/A.java", "src/main/java/A.class",
+            "src/main/resources/keep.log", "src/main/resources/gen/B.java", "node_modules/x/index.js",
+            "target/classes/A.class", "docs/target", "build/out.txt" } )
+        {
+            Utils.writeBytes( file( path ), (byte) 0 );
+        }
+        // make the base directory the root of a work tree, otherwise the ignore files of this project would apply
+        file( ".git" ).mkdirs();
+        write( ".gitignore", "# comment", "*.log", "node_modules/", "/target/", "build/**", "!build/keep.txt" );
+        write( "src/main/.gitignore", "*.class", "!keep.log", "resources/gen" );
+    }
+
+    @After
+    public void exit()
+        throws Exception
+    {
+        Utils.delete( basedir );
+    }
+
+    private File file( String path )
+    {
+        return new File( basedir, path.replace( '/', File.separatorChar ) );
+    }
+
+    private void write( String path, String... lines )
+        throws Exception
+    {
+        file( path ).delete();
+        StringBuilder buffer = new StringBuilder();
+        for ( String line : lines )
+        {
+            buffer.append( line ).append( '\n' );
+        }
+        Utils.writeBytes( file( path ), buffer.toString().getBytes( "UTF-8" ) );
+    }
+
+    private Selector newSelector()
+    {
+        return new GitIgnoreSelector( new GlobSelector( Collections.<String> emptyList(), null, true, true ), basedir,
+                                      true );
+    }
+
+    private static String path( String path )
+    {
+        return path.replace( '/', File.separatorChar );
+    }
+
+    @Test
+    public void testScan_PrunesIgnoredDirectoriesAndHonorsNegation()
+    {
+        final List<String> paths = new ArrayList<String>();
+        final List<String> listed = new ArrayList<String>();
+        DirectoryScan scan = new DirectoryScan( basedir, newSelector(), false, true )
+        {
+            @Override
+            protected DirectoryListing list( File dir )
+            {
+                listed.add( dir.getName() );
+                return super.list( dir );
+            }
+
+            @Override
+            protected void onItem( String pathname, File file )
+            {
+                paths.add( pathname.replace( File.separatorChar, '/' ) );
+            }
+        };
+        scan.run();
+
+        assertEquals( Arrays.asList( "docs/target", "pom.xml", "src/main/java/A.java", "src/main/resources/keep.log" ),
+                      paths );
+        assertFalse( listed.toString(), listed.contains( "node_modules" ) );
+        assertFalse( listed.toString(), listed.contains( "target" ) );
+        assertFalse( listed.toString(), listed.contains( "gen" ) );
+    }
+
+    @Test
+    public void testIsSelected_Pathnames()
+    {
+        Selector selector = newSelector();
+        assertTrue( selector.isSelected( "pom.xml" ) );
+        assertFalse( selector.isSelected( "debug.log" ) );
+        assertFalse( selector.isSelected( path( "src/main/java/A.class" ) ) );
+        assertTrue( selector.isSelected( path( "src/main/resources/keep.log" ) ) );
+        assertFalse( selector.isSelected( path( "node_modules/x/index.js" ) ) );
+        assertFalse( selector.isSelected( path( "build/out.txt" ) ) );
+        // the directory itself is not ignored by "build/**" so its contents can be re-included
+        assertTrue( selector.isSelected( path( "build/keep.txt" ) ) );
+        assertTrue( selector.isSelected( path( "docs/target" ) ) );
+        assertTrue( selector.isSelected( file( "pom.xml" ).getPath() ) );
+        assertFalse( selector.isSelected( file( "debug.log" ).getPath() ) );
+
+        assertFalse( selector.isAncestorOfPotentiallySelected( "node_modules" ) );
+        assertFalse( selector.isAncestorOfPotentiallySelected( path( "src/main/resources/gen" ) ) );
+        assertTrue( selector.isAncestorOfPotentiallySelected( path( "src/main/resources" ) ) );
+    }
+
+    @Test
+    public void testIsSelected_ReloadsChangedIgnoreFiles()
+        throws Exception
+    {
+        Selector selector = newSelector();
+        assertTrue( selector.isSelected( "pom.xml" ) );
+
+        write( ".gitignore", "*.xml" );
+        file( ".gitignore" ).setLastModified( file( ".gitignore" ).lastModified() + 2000 );
+        assertFalse( selector.isSelected( "pom.xml" ) );
+        assertTrue( selector.isSelected( "debug.log" ) );
+    }
+
+    @Test
+    public void testIsSelected_ReloadsRecentEditOfSameSizeAndTimestamp()
+        throws Exception
+    {
+        write( ".gitignore", "*.log" );
+        long timestamp = file( ".gitignore" ).lastModified();
+        Selector selector = newSelector();
+        assertFalse( selector.isSelected( "debug.log" ) );
+
+        write( ".gitignore", "*.xml" );
+        file( ".gitignore" ).setLastModified( timestamp );
+        assertFalse( selector.isSelected( "pom.xml" ) );
+        assertTrue( selector.isSelected( "debug.log" ) );
+    }
+
+    @Test
+    public void testMatchesSegment()
+    {
+        assertTrue( GitIgnoreRules.matchesSegment( "*.java", "A.java", true ) );
+        assertFalse( GitIgnoreRules.matchesSegment( "*.java", "A.JAVA", true ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "*.java", "A.JAVA", false ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "a*b*c", "aXbYbc", true ) );
+        assertFalse( GitIgnoreRules.matchesSegment( "a*b*c", "aXbYb", true ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "file?.txt", "file1.txt", true ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "[Mm]akefile", "makefile", true ) );
+        assertFalse( GitIgnoreRules.matchesSegment( "[!Mm]akefile", "makefile", true ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "v[0-9].log", "v7.log", true ) );
+        assertFalse( GitIgnoreRules.matchesSegment( "v[0-9].log", "vx.log", true ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "[a-c]x", "Bx", false ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "\\#notes", "#notes", true ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "\\*", "*", true ) );
+        assertFalse( GitIgnoreRules.matchesSegment( "\\*", "a", true ) );
+        assertTrue( GitIgnoreRules.matchesSegment( "[", "[", true ) );
+    }
+
+}
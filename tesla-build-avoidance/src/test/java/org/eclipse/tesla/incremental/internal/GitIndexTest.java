@@ -0,0 +1,274 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import org.eclipse.tesla.incremental.BuildContext;
+import org.eclipse.tesla.incremental.PathSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GitIndexTest
+{
+
+    private File workTree;
+
+    private File indexFile;
+
+    @Before
+    public void init()
+    {
+        String name = getClass().getSimpleName() + UUID.randomUUID().toString().replace( "-", "" );
+        workTree = new File( "target/tests/" + name ).getAbsoluteFile();
+        indexFile = new File( workTree, ".git/index" );
+        indexFile.getParentFile().mkdirs();
+    }
+
+    @After
+    public void exit()
+        throws Exception
+    {
+        Utils.delete( workTree );
+    }
+
+    private static class IndexBuilder
+    {
+
+        private final int version;
+
+        private final List<Object[]> entries = new ArrayList<Object[]>();
+
+        IndexBuilder( int version )
+        {
+            this.version = version;
+        }
+
+        IndexBuilder add( String path, File file, byte[] id )
+        {
+            entries.add( new Object[] { path, (int) ( file.lastModified() / 1000 ), (int) file.length(), id } );
+            return this;
+        }
+
+        void write( File indexFile, long timestamp )
+            throws Exception
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeInt( 0x44495243 );
+            out.writeInt( version );
+            out.writeInt( entries.size() );
+            byte[] previous = new byte[0];
+            for ( Object[] entry : entries )
+            {
+                int start = out.size();
+                byte[] path = ( (String) entry[0] ).getBytes( "UTF-8" );
+                out.writeInt( 0 );
+                out.writeInt( 0 );
+                out.writeInt( (Integer) entry[1] );
+                out.writeInt( 0 );
+                out.writeInt( 0 );
+                out.writeInt( 0 );
+                out.writeInt( 0100644 );
+                out.writeInt( 0 );
+                out.writeInt( 0 );
+                out.writeInt( (Integer) entry[2] );
+                out.write( (byte[]) entry[3] );
+                out.writeShort( Math.min( path.length, 0xFFF ) );
+                if ( version >= 4 )
+                {
+                    int common = 0;
+                    while ( common < path.length && common < previous.length && path[common] == previous[common] )
+                    {
+                        common++;
+                    }
+                    // single byte varint suffices for the short paths used here
+                    out.write( previous.length - common );
+                    out.write( path, common, path.length - common );
+                    out.write( 0 );
+                }
+                else
+                {
+                    out.write( path );
+                    int length = out.size() - start;
+                    int padded = ( length + 8 ) & ~7;
+                    for ( int i = length; i < padded; i++ )
+                    {
+                        out.write( 0 );
+                    }
+                }
+                previous = path;
+            }
+            out.flush();
+            out.write( MessageDigest.getInstance( "SHA-1" ).digest( bytes.toByteArray() ) );
+            out.close();
+
+            Utils.writeBytes( indexFile, bytes.toByteArray() );
+            indexFile.setLastModified( timestamp );
+        }
+
+    }
+
+    private File writeFile( String path, String contents, long timestamp )
+        throws Exception
+    {
+        File file = Utils.writeBytes( new File( workTree, path ), contents.getBytes( "UTF-8" ) );
+        file.setLastModified( timestamp );
+        return file;
+    }
+
+    private static long now()
+    {
+        return System.currentTimeMillis() / 1000 * 1000;
+    }
+
+    private static byte[] blobId( File file )
+        throws IOException
+    {
+        return GitIndex.hashBlob( file, file.length() );
+    }
+
+    @Test
+    public void testHashBlob_SameAsGit()
+        throws Exception
+    {
+        File file = writeFile( "hello.txt", "hello\n", now() );
+        assertEquals( "ce013625030ba8dba906f756967f9e9ca394464a", DigestUtils.toHexString( blobId( file ) ) );
+    }
+
+    @Test
+    public void testGetBlobId_Version2()
+        throws Exception
+    {
+        long time = now() - 10000;
+        File a = writeFile( "a.txt", "a", time );
+        File b = writeFile( "sub/dir/a-file-with-a-longer-name.txt", "b", time );
+        File c = writeFile( "c.txt", "c", time );
+        byte[] fakeId = new byte[20];
+        IndexBuilder builder = new IndexBuilder( 2 );
+        builder.add( "a.txt", a, blobId( a ) ).add( "c.txt", c, fakeId );
+        builder.add( "sub/dir/a-file-with-a-longer-name.txt", b, blobId( b ) );
+        builder.write( indexFile, now() );
+
+        GitIndex index = GitIndex.load( workTree, indexFile );
+        assertEquals( 3, index.getEntryCount() );
+        assertArrayEquals( blobId( a ), index.getBlobId( "a.txt", a ) );
+        assertArrayEquals( blobId( b ), index.getBlobId( "sub/dir/a-file-with-a-longer-name.txt", b ) );
+        // not racy, hence trusted without hashing
+        assertArrayEquals( fakeId, index.getBlobId( "c.txt", c ) );
+        assertNull( index.getBlobId( "untracked.txt", a ) );
+
+        a.setLastModified( time + 5000 );
+        assertNull( index.getBlobId( "a.txt", a ) );
+    }
+
+    @Test
+    public void testGetBlobId_Version4()
+        throws Exception
+    {
+        long time = now() - 10000;
+        File a = writeFile( "src/main/A.java", "a", time );
+        File b = writeFile( "src/main/B.java", "bb", time );
+        File c = writeFile( "src/test/C.java", "ccc", time );
+        IndexBuilder builder = new IndexBuilder( 4 );
+        builder.add( "src/main/A.java", a, blobId( a ) ).add( "src/main/B.java", b, blobId( b ) );
+        builder.add( "src/test/C.java", c, blobId( c ) );
+        builder.write( indexFile, now() );
+
+        GitIndex index = GitIndex.load( workTree, indexFile );
+        assertEquals( 3, index.getEntryCount() );
+        assertArrayEquals( blobId( a ), index.getBlobId( "src/main/A.java", a ) );
+        assertArrayEquals( blobId( b ), index.getBlobId( "src/main/B.java", b ) );
+        assertArrayEquals( blobId( c ), index.getBlobId( "src/test/C.java", c ) );
+    }
+
+    @Test
+    public void testGetBlobId_RacilyCleanEntryVerifiedByHashing()
+        throws Exception
+    {
+        long time = now();
+        File a = writeFile( "a.txt", "a", time );
+        File b = writeFile( "b.txt", "b", time );
+        new IndexBuilder( 2 ).add( "a.txt", a, blobId( a ) ).add( "b.txt", b, new byte[20] ).write( indexFile, time );
+
+        GitIndex index = GitIndex.load( workTree, indexFile );
+        assertArrayEquals( blobId( a ), index.getBlobId( "a.txt", a ) );
+        assertNull( index.getBlobId( "b.txt", b ) );
+    }
+
+    @Test( expected = IOException.class )
+    public void testLoad_CorruptedChecksum()
+        throws Exception
+    {
+        File a = writeFile( "a.txt", "a", now() );
+        new IndexBuilder( 2 ).add( "a.txt", a, blobId( a ) ).write( indexFile, now() );
+        byte[] bytes = Utils.readBytes( indexFile );
+        bytes[20] ^= 1;
+        Utils.writeBytes( indexFile, bytes );
+
+        GitIndex.load( workTree, indexFile );
+    }
+
+    @Test
+    public void testIncrementalBuild_TimestampOnlyChangeOfTrackedFileIgnored()
+        throws Exception
+    {
+        long time = now() - 10000;
+        File a = writeFile( "src/a.txt", "a", time );
+        File b = writeFile( "src/b.txt", "b", time );
+        IndexBuilder builder = new IndexBuilder( 2 );
+        builder.add( "src/a.txt", a, blobId( a ) ).add( "src/b.txt", b, blobId( b ) ).write( indexFile, now() );
+
+        File outputDirectory = new File( workTree, "target/out" );
+        File stateDirectory = new File( workTree, "target/state" );
+        PathSet pathSet = new PathSet( new File( workTree, "src" ) );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        manager.setGitIndex( true );
+
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        assertEquals( 2, ctx.getInputs( pathSet, false ).size() );
+        ctx.commit();
+        ctx.close();
+
+        // simulate checkout of another branch and back, git updates the stat data in the index
+        a.setLastModified( time + 2000 );
+        Utils.writeBytes( b, (byte) 'B' );
+        b.setLastModified( time + 2000 );
+        builder = new IndexBuilder( 2 );
+        builder.add( "src/a.txt", a, blobId( a ) ).add( "src/b.txt", b, blobId( b ) ).write( indexFile, now() + 1000 );
+
+        ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        Collection<String> inputs = ctx.getInputs( pathSet, false );
+        ctx.commit();
+        ctx.close();
+        assertEquals( 1, inputs.size() );
+        assertEquals( "b.txt", inputs.iterator().next() );
+
+        manager.setGitIndex( false );
+        a.setLastModified( time + 4000 );
+        ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        inputs = ctx.getInputs( pathSet, false );
+        ctx.close();
+        assertEquals( 1, inputs.size() );
+        assertEquals( "a.txt", inputs.iterator().next() );
+    }
+
+}
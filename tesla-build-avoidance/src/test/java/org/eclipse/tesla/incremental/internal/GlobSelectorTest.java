@@ -11,9 +11,11 @@ package org.eclipse.tesla.incremental.internal;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -62,4 +64,137 @@ public class GlobSelectorTest
         assertEquals( false, selector.isAncestorOfPotentiallySelected( ".svn" ) );
     }
 
+    @Test
+    public void testIsAncestorOfPotentiallySelected_PrunesBeyondIncludeDepthAndBelowCoveringExcludes()
+    {
+        Selector selector =
+            new GlobSelector( Arrays.asList( "src/*/java/*.java", "lib/*.jar", "doc/**" ),
+                              Arrays.asList( "src/it/**", "**/target/**" ), true, false );
+        assertEquals( true, selector.isAncestorOfPotentiallySelected( path( "src/main/java" ) ) );
+        assertEquals( false, selector.isAncestorOfPotentiallySelected( path( "src/main/java/p" ) ) );
+        assertEquals( false, selector.isAncestorOfPotentiallySelected( path( "src/main/resources" ) ) );
+        assertEquals( false, selector.isAncestorOfPotentiallySelected( path( "lib/x.jar" ) ) );
+        assertEquals( false, selector.isAncestorOfPotentiallySelected( path( "src/it/java" ) ) );
+        assertEquals( true, selector.isAncestorOfPotentiallySelected( path( "doc/a/b" ) ) );
+        assertEquals( false, selector.isAncestorOfPotentiallySelected( path( "doc/a/target/b" ) ) );
+        assertEquals( false, selector.isAncestorOfPotentiallySelected( path( "doc/.svn/b" ) ) );
+        assertEquals( false, selector.isAncestorOfPotentiallySelected( path( "other" ) ) );
+    }
+
+    private static String path( String path )
+    {
+        return path.replace( '/', File.separatorChar );
+    }
+
+    @Test
+    public void testSegments_SameResultsAsPathnames()
+    {
+        Selector selector =
+            new GlobSelector( Arrays.asList( "src/**/*.java", "*.txt" ), Arrays.asList( "**/gen/**" ), true, true );
+        String[][] paths =
+            { {}, { "src" }, { "src", "main", "A.java" }, { "src", "gen" }, { "src", "gen", "B.java" },
+                { "a.txt" }, { "doc", "a.txt" }, { ".git" } };
+        for ( String[] path : paths )
+        {
+            StringBuilder buffer = new StringBuilder();
+            for ( String segment : path )
+            {
+                if ( buffer.length() > 0 )
+                {
+                    buffer.append( File.separatorChar );
+                }
+                buffer.append( segment );
+            }
+            String pathname = buffer.toString();
+
+            String[] segments = new String[path.length + 2];
+            System.arraycopy( path, 0, segments, 0, path.length );
+            segments[path.length] = "trailing-garbage";
+
+            assertEquals( pathname, selector.isSelected( pathname ), selector.isSelected( segments, path.length ) );
+            assertEquals( pathname, selector.isAncestorOfPotentiallySelected( pathname ),
+                          selector.isAncestorOfPotentiallySelected( segments, path.length ) );
+        }
+    }
+
+    @Test
+    public void testDefaultExcludes_SameResultsAsExplicitExcludes()
+    {
+        String[] names =
+            { "a", "A.java", "CVS", "cvs", ".git", ".GIT", ".gitignore", "a~", "._a", "#a#", "#", "%a%", ".#a",
+                "-darcs-backup1", "-DARCS-backup", ".svn", "vssver.scc", "ChangeSet" };
+        Collection<String> includes = Arrays.asList( "**/*.java", "**/.git*", "a/**", "**/cvs/*" );
+        Collection<String> excludes = Arrays.asList( "**/a~" );
+        Collection<String> explicitExcludes = new ArrayList<String>( excludes );
+        explicitExcludes.addAll( Arrays.asList( GlobSelector.DEFAULT_EXCLUDES ) );
+
+        Random random = new Random( 4711 );
+        for ( boolean caseSensitive : new boolean[] { true, false } )
+        {
+            Selector selector = new GlobSelector( includes, excludes, true, caseSensitive );
+            Selector explicit = new GlobSelector( includes, explicitExcludes, false, caseSensitive );
+            for ( int i = 0; i < 5000; i++ )
+            {
+                String[] path = new String[1 + random.nextInt( 4 )];
+                Object state = selector.getInitialState();
+                for ( int j = 0; j < path.length; j++ )
+                {
+                    path[j] = names[random.nextInt( names.length )];
+                    String msg = Arrays.asList( path ).subList( 0, j + 1 ) + " caseSensitive=" + caseSensitive;
+                    boolean selected = explicit.isSelected( path, j + 1 );
+                    assertEquals( msg, selected, selector.isSelected( path, j + 1 ) );
+                    assertEquals( msg, selected, selector.isSelected( state, path[j] ) );
+                    state = selector.descend( state, path[j] );
+                    if ( !selector.isAncestorOfPotentiallySelected( state ) )
+                    {
+                        String[] descendant = Arrays.copyOf( path, j + 2 );
+                        for ( String name : names )
+                        {
+                            descendant[j + 1] = name;
+                            assertFalse( msg + " " + name, explicit.isSelected( descendant, j + 2 ) );
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private static String[][] tokenize( String... paths )
+    {
+        String[][] tokens = new String[paths.length][];
+        for ( int i = 0; i < paths.length; i++ )
+        {
+            tokens[i] = SelectorUtils.tokenizePathAsArray( paths[i].replace( '/', File.separatorChar ) );
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testGetLiteralPaths()
+    {
+        Selector selector =
+            new GlobSelector( Arrays.asList( "pom.xml", "src/main/a.txt", "src/a.txt" ), EMPTY, true, true );
+        assertArrayEquals( tokenize( "pom.xml", "src/a.txt", "src/main/a.txt" ), selector.getLiteralPaths() );
+        assertNull( selector.getRoots() );
+
+        assertNull( new GlobSelector( Arrays.asList( "pom.xml", "*.txt" ), EMPTY, true, true ).getLiteralPaths() );
+        assertNull( new GlobSelector( Arrays.asList( "pom.xml" ), EMPTY, true, false ).getLiteralPaths() );
+        assertNull( new GlobSelector( Arrays.asList( "../pom.xml" ), EMPTY, true, true ).getLiteralPaths() );
+        assertNull( new GlobSelector( EMPTY, EMPTY, true, true ).getLiteralPaths() );
+    }
+
+    @Test
+    public void testGetRoots()
+    {
+        Collection<String> includes =
+            Arrays.asList( "src/main/**/*.java", "src/test/*.java", "src/main/resources/", "lib/a/b.jar" );
+        Selector selector = new GlobSelector( includes, EMPTY, true, true );
+        assertArrayEquals( tokenize( "lib/a", "src/main", "src/test" ), selector.getRoots() );
+        assertNull( selector.getLiteralPaths() );
+
+        assertNull( new GlobSelector( Arrays.asList( "src/*.java", "*.txt" ), EMPTY, true, true ).getRoots() );
+        assertNull( new GlobSelector( Arrays.asList( "src/*.java" ), EMPTY, true, false ).getRoots() );
+    }
+
 }
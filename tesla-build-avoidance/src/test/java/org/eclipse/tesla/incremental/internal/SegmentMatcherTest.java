@@ -0,0 +1,216 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SegmentMatcherTest
+{
+
+    private static final String[] PATTERN_SEGMENTS =
+        { "a", "b", "ab", "A", "*", "**", "a*", "*b", "?", "a?", "*a*", "**", ".git", "*.java", "a*b", "*.J*",
+            "*.gz", "*.tar.gz", "#*#" };
+
+    private static final String[] PATH_SEGMENTS =
+        { "a", "b", "ab", "A", "aa", "abb", "ba", "x", ".git", "X.java", ".java", "a.tar.gz", "#a#", "#" };
+
+    private static boolean matchPath( String[][] includes, String[][] excludes, String[] path, boolean caseSensitive )
+    {
+        boolean included = includes.length <= 0;
+        for ( String[] include : includes )
+        {
+            included |= SelectorUtils.matchPath( include, path, path.length, caseSensitive );
+        }
+        for ( String[] exclude : excludes )
+        {
+            included &= !SelectorUtils.matchPath( exclude, path, path.length, caseSensitive );
+        }
+        return included;
+    }
+
+    private static String[] random( Random random, String[] alphabet, int maxLength )
+    {
+        String[] segments = new String[random.nextInt( maxLength + 1 )];
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            segments[i] = alphabet[random.nextInt( alphabet.length )];
+        }
+        return segments;
+    }
+
+    private static String[][] random( Random random, int maxCount )
+    {
+        String[][] patterns = new String[random.nextInt( maxCount + 1 )][];
+        for ( int i = 0; i < patterns.length; i++ )
+        {
+            patterns[i] = random( random, PATTERN_SEGMENTS, 4 );
+        }
+        return patterns;
+    }
+
+    private static String toString( String[][] patterns )
+    {
+        StringBuilder buffer = new StringBuilder();
+        for ( String[] pattern : patterns )
+        {
+            buffer.append( Arrays.asList( pattern ) );
+        }
+        return buffer.toString();
+    }
+
+    private static void assertEquivalent( String[][] includes, String[][] excludes, String[] path,
+                                          boolean caseSensitive )
+    {
+        SegmentMatcher matcher = new SegmentMatcher( includes, excludes, caseSensitive );
+        assertEquals( "includes=" + toString( includes ) + " excludes=" + toString( excludes ) + " path="
+            + Arrays.asList( path ) + " caseSensitive=" + caseSensitive,
+                      matchPath( includes, excludes, path, caseSensitive ), matcher.matches( path, path.length ) );
+    }
+
+    @Test
+    public void testMatches_SameResultsAsMatchPathForRandomPatterns()
+    {
+        Random random = new Random( 4711 );
+        for ( int i = 0; i < 20000; i++ )
+        {
+            String[][] includes = random( random, 3 );
+            String[][] excludes = random( random, 2 );
+            String[] path = random( random, PATH_SEGMENTS, 5 );
+            assertEquivalent( includes, excludes, path, true );
+            assertEquivalent( includes, excludes, path, false );
+        }
+    }
+
+    @Test
+    public void testStep_ConsistentWithMatchesAndNeverPrunesSelectedDescendants()
+    {
+        Random random = new Random( 815 );
+        for ( int i = 0; i < 20000; i++ )
+        {
+            String[][] includes = random( random, 3 );
+            String[][] excludes = random( random, 2 );
+            String[] path = random( random, PATH_SEGMENTS, 5 );
+            boolean caseSensitive = random.nextBoolean();
+            SegmentMatcher matcher = new SegmentMatcher( includes, excludes, caseSensitive );
+            String msg = "includes=" + toString( includes ) + " excludes=" + toString( excludes ) + " path="
+                + Arrays.asList( path ) + " caseSensitive=" + caseSensitive;
+
+            int selected = -1;
+            for ( int j = path.length; j >= 0 && selected < 0; j-- )
+            {
+                selected = matcher.matches( path, j ) ? j : -1;
+            }
+
+            int[] states = matcher.getInitialStates();
+            for ( int j = 0; j <= path.length; j++ )
+            {
+                assertEquals( msg + " count=" + j, matcher.matches( path, j ), matcher.isAccepted( states ) );
+                if ( j < path.length )
+                {
+                    assertEquals( msg + " count=" + j, matcher.matches( path, j + 1 ),
+                                  matcher.isAccepted( states, path[j] ) );
+                    if ( selected > j )
+                    {
+                        assertTrue( msg + " count=" + j, matcher.isAcceptingDescendants( states ) );
+                    }
+                    states = matcher.step( states, path[j] );
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMatches_ManyExtensions()
+    {
+        String[] extensions = { "java", "JAVA", "c", "h", "cpp", "properties", "xml", "tar.gz", "gz", "txt" };
+        String[][] includes = new String[extensions.length][];
+        for ( int i = 0; i < extensions.length; i++ )
+        {
+            includes[i] = new String[] { "**", "*." + extensions[i] };
+        }
+        String[][] excludes = { { "**", "*.txt" }, { "**", "gen", "*.c" } };
+        String[][] paths =
+            { { "A.java" }, { "a", "A.JAVA" }, { "a", "A.Java" }, { "java" }, { ".java" }, { "a.b.c" }, { "a.c.d" },
+                { "a", "b.tar.gz" }, { "a.txt" }, { "gen", "a.c" }, { "gen", "a.h" }, { "a.xml", "b" }, { "a." } };
+        for ( String[] path : paths )
+        {
+            assertEquivalent( includes, excludes, path, true );
+            assertEquivalent( includes, excludes, path, false );
+        }
+    }
+
+    @Test
+    public void testIsAcceptingDescendants()
+    {
+        SegmentMatcher matcher =
+            new SegmentMatcher( new String[][] { { "src", "*", "java", "**" } }, new String[][] { { "**", ".git",
+                "**" } }, true );
+        int[] states = matcher.getInitialStates();
+        assertTrue( matcher.isAcceptingDescendants( states ) );
+        assertFalse( matcher.isAcceptingDescendants( matcher.step( states, "lib" ) ) );
+        assertFalse( matcher.isAcceptingDescendants( matcher.step( states, ".git" ) ) );
+        states = matcher.step( matcher.step( states, "src" ), "main" );
+        assertTrue( matcher.isAcceptingDescendants( states ) );
+        assertFalse( matcher.isAcceptingDescendants( matcher.step( states, "resources" ) ) );
+        states = matcher.step( states, "java" );
+        assertTrue( matcher.isAcceptingDescendants( states ) );
+        assertFalse( matcher.isAcceptingDescendants( matcher.step( states, ".git" ) ) );
+    }
+
+    @Test
+    public void testMatches_TypicalPatterns()
+    {
+        String[][] includes =
+            { { "**", "*.java" }, { "src", "main", "**" }, { "pom.xml" }, { "**", "generated", "**", "*.txt" } };
+        String[][] excludes = { { "**", ".git", "**" }, { "**", "*~" }, { "**", "CVS" }, { "target", "**" } };
+        String[][] paths =
+            { {}, { "pom.xml" }, { "A.java" }, { "src" }, { "src", "main" }, { "src", "main", "x.c" },
+                { ".git", "A.java" }, { "a", "b", ".git", "c", "A.java" }, { "a", "A.java~" },
+                { "a", "generated", "b", "c.txt" }, { "generated", "c.txt" }, { "a", "generated" },
+                { "target", "A.java" }, { "src", "target", "A.java" }, { "CVS" }, { "a", "CVS", "A.java" } };
+        for ( String[] path : paths )
+        {
+            assertEquivalent( includes, excludes, path, true );
+            assertEquivalent( includes, excludes, path, false );
+            assertEquivalent( new String[0][], excludes, path, true );
+        }
+    }
+
+    @Test
+    public void testMatches_ConsidersOnlyLeadingSegments()
+    {
+        SegmentMatcher matcher = new SegmentMatcher( new String[][] { { "a", "*" } }, new String[0][], true );
+        String[] path = { "a", "b", "c" };
+        assertFalse( matcher.matches( path, 1 ) );
+        assertTrue( matcher.matches( path, 2 ) );
+        assertFalse( matcher.matches( path, 3 ) );
+    }
+
+    @Test
+    public void testIsSelected_SameResultsAsMatchPathWithDefaultExcludes()
+    {
+        GlobSelector selector = new GlobSelector( Arrays.asList( "**/*.java", "**/.git*" ), null, true, true );
+        String[] pathnames =
+            { "A.java", ".git", ".gitignore", "a/.git/A.java", "a/CVS/A.java", "a/A.java~", "a/._A.java",
+                "a/-darcs-backup1/A.java", "a/b/A.java" };
+        boolean[] expected = { true, false, false, false, false, false, false, true, true };
+        for ( int i = 0; i < pathnames.length; i++ )
+        {
+            String pathname = pathnames[i].replace( '/', File.separatorChar );
+            assertEquals( pathname, expected[i], selector.isSelected( pathname ) );
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+/**
+ * Compares {@link SegmentPattern} with {@link SelectorUtils#match(String, String, boolean)} for case-sensitive and
+ * case-insensitive matching. This is not a unit test but a simple benchmark to be run manually from the test classpath
+ * like {@link DirectoryScanBenchmark}, allocation is only reported on JVMs that support per-thread allocation
+ * accounting.
+ */
+public class SegmentPatternBenchmark
+{
+
+    private static final String[] PATTERNS = { "*.java", "*Test.java", "Abstract*Test*.java", "?*.xml", "*~" };
+
+    private static final String[] NAMES =
+        { "Foo.java", "FooTest.JAVA", "AbstractFooTestCase.java", "pom.xml", "README.txt", "notes~",
+            "VeryLongClassNameWithoutAnyMatch.properties" };
+
+    public static void main( String[] args )
+    {
+        int iterations = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 2000000;
+
+        for ( boolean caseSensitive : new boolean[] { true, false } )
+        {
+            SegmentPattern[] compiled = new SegmentPattern[PATTERNS.length];
+            for ( int i = 0; i < compiled.length; i++ )
+            {
+                compiled[i] = new SegmentPattern( PATTERNS[i], caseSensitive );
+            }
+
+            for ( int round = 0; round < 2; round++ )
+            {
+                boolean report = round > 0;
+                run( "SelectorUtils.match", caseSensitive, iterations, report, null );
+                run( "SegmentPattern", caseSensitive, iterations, report, compiled );
+            }
+        }
+    }
+
+    private static void run( String name, boolean caseSensitive, int iterations, boolean report,
+                             SegmentPattern[] compiled )
+    {
+        long bytesBefore = Utils.getAllocatedBytes();
+        long start = System.nanoTime();
+        int matches = 0;
+        for ( int i = 0; i < iterations; i++ )
+        {
+            String str = NAMES[i % NAMES.length];
+            for ( int j = 0; j < PATTERNS.length; j++ )
+            {
+                boolean matched =
+                    ( compiled != null ) ? compiled[j].matches( str )
+                                    : SelectorUtils.match( PATTERNS[j], str, caseSensitive );
+                if ( matched )
+                {
+                    matches++;
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        long bytesAfter = Utils.getAllocatedBytes();
+
+        if ( report )
+        {
+            long count = (long) iterations * PATTERNS.length;
+            StringBuilder buffer = new StringBuilder( 128 );
+            buffer.append( name ).append( caseSensitive ? " (case-sensitive): " : " (case-insensitive): " );
+            buffer.append( nanos / count ).append( '.' ).append( nanos * 10 / count % 10 ).append( " ns/match" );
+            // reporting the outcome keeps the JIT from eliminating the loop
+            buffer.append( ", " ).append( matches ).append( " matches" );
+            if ( bytesBefore >= 0 && bytesAfter >= 0 )
+            {
+                buffer.append( ", " ).append( ( bytesAfter - bytesBefore ) / count ).append( " bytes/match" );
+            }
+            System.out.println( buffer );
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SegmentPatternTest
+{
+
+    private static String random( Random random, String alphabet, int maxLength )
+    {
+        char[] chars = new char[random.nextInt( maxLength + 1 )];
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = alphabet.charAt( random.nextInt( alphabet.length() ) );
+        }
+        return new String( chars );
+    }
+
+    @Test
+    public void testMatches_SameResultsAsSelectorUtilsForRandomPatterns()
+    {
+        Random random = new Random( 4711 );
+        for ( int i = 0; i < 50000; i++ )
+        {
+            String pattern = random( random, "aAbB.**??\u00df\u0131I", 6 );
+            String str = random( random, "aAbB.\u00dfSi\u0130I", 6 );
+            for ( boolean caseSensitive : new boolean[] { true, false } )
+            {
+                assertEquals( "pattern=" + pattern + " str=" + str + " caseSensitive=" + caseSensitive,
+                              SelectorUtils.match( pattern, str, caseSensitive ),
+                              new SegmentPattern( pattern, caseSensitive ).matches( str ) );
+            }
+        }
+    }
+
+    @Test
+    public void testMatches_CaseInsensitive()
+    {
+        SegmentPattern pattern = new SegmentPattern( "*Test?.java", false );
+        assertTrue( pattern.matches( "FooTest1.JAVA" ) );
+        assertTrue( pattern.matches( "footest2.java" ) );
+        assertFalse( pattern.matches( "FooTest.java" ) );
+        assertFalse( new SegmentPattern( "*Test?.java", true ).matches( "FooTest1.JAVA" ) );
+    }
+
+}
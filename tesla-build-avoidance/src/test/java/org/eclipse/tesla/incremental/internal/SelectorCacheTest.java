@@ -0,0 +1,57 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.eclipse.tesla.incremental.PathSet;
+import org.junit.Test;
+
+public class SelectorCacheTest
+{
+
+    private static PathSet newPathSet( String include )
+    {
+        return new PathSet( new File( "target" ), new String[] { include }, null );
+    }
+
+    @Test
+    public void testGetSelector_SharedByEqualPathSets()
+    {
+        SelectorCache cache = new SelectorCache( 4 );
+
+        PathSet pathSet = newPathSet( "**/*.java" );
+        Selector selector = cache.getSelector( pathSet );
+        assertSame( selector, cache.getSelector( newPathSet( "**/*.java" ) ) );
+        assertNotSame( selector, cache.getSelector( newPathSet( "**/*.java" ).setCaseSensitive( false ) ) );
+
+        // the cached selector must not follow modifications of the path set it was created for
+        pathSet.addIncludes( "**/*.txt" );
+        assertNotSame( selector, cache.getSelector( pathSet ) );
+        assertSame( selector, cache.getSelector( newPathSet( "**/*.java" ) ) );
+    }
+
+    @Test
+    public void testGetSelector_EvictsLeastRecentlyUsed()
+    {
+        SelectorCache cache = new SelectorCache( 2 );
+
+        Selector a = cache.getSelector( newPathSet( "a" ) );
+        Selector b = cache.getSelector( newPathSet( "b" ) );
+        assertSame( a, cache.getSelector( newPathSet( "a" ) ) );
+        cache.getSelector( newPathSet( "c" ) );
+        assertEquals( 2, cache.size() );
+        assertSame( a, cache.getSelector( newPathSet( "a" ) ) );
+        assertNotSame( b, cache.getSelector( newPathSet( "b" ) ) );
+        assertEquals( 2, cache.size() );
+    }
+
+}
@@ -0,0 +1,281 @@
+package org.eclipse.tesla.incremental.internal;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.eclipse.tesla.incremental.BuildContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+
+public class SharedStateBuildContextManagerTest
+{
+
+    @Rule
+    public TestName testName = new TestName();
+
+    private File stateDirectory;
+
+    private File outputDirectory;
+
+    private File tokenDirectory;
+
+    private File tokenFile;
+
+    private BuildStateServer server;
+
+    @Before
+    public void init()
+        throws Exception
+    {
+        System.out.println( "========== " + testName.getMethodName() );
+        String name = getClass().getSimpleName() + UUID.randomUUID().toString().replace( "-", "" );
+        outputDirectory = new File( "target/tests/" + name + "out" ).getAbsoluteFile();
+        outputDirectory.mkdirs();
+        stateDirectory = new File( "target/tests/" + name + "ctx" ).getAbsoluteFile();
+        tokenDirectory = new File( "target/tests/" + name + "token" ).getAbsoluteFile();
+        tokenFile = new File( tokenDirectory, "server.token" );
+    }
+
+    @After
+    public void exit()
+        throws Exception
+    {
+        if ( server != null )
+        {
+            server.close();
+        }
+        Utils.delete( stateDirectory );
+        Utils.delete( outputDirectory );
+        Utils.delete( tokenDirectory );
+    }
+
+    private int startServer( File root )
+        throws Exception
+    {
+        return startServer( root, 0 );
+    }
+
+    private int startServer( File root, long maxBytes )
+        throws Exception
+    {
+        server = new BuildStateServer( null, 0, maxBytes, Collections.singleton( root ), tokenFile );
+        Thread thread = new Thread( server );
+        thread.setDaemon( true );
+        thread.start();
+        return server.getPort();
+    }
+
+    @Test
+    public void testStateRoundTripViaServer()
+        throws Exception
+    {
+        int port = startServer( stateDirectory );
+
+        SharedStateBuildContextManager manager = new SharedStateBuildContextManager( null, port, tokenFile );
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value" );
+        ctx.commit();
+        ctx.close();
+        assertTrue( manager.isServerAvailable() );
+
+        File[] stateFiles = stateDirectory.listFiles();
+        assertNotNull( stateFiles );
+        assertEquals( 1, stateFiles.length );
+        assertEquals( "value", BuildState.load( stateFiles[0] ).getValue( "key" ) );
+
+        SharedStateBuildContextManager manager2 = new SharedStateBuildContextManager( null, port, tokenFile );
+        BuildContext ctx2 = manager2.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertEquals( "value", ctx2.getValue( "key" ) );
+        }
+        finally
+        {
+            ctx2.close();
+        }
+        assertTrue( manager2.isServerAvailable() );
+    }
+
+    @Test
+    public void testDefaultManagerUsesServerGivenBySystemProperty()
+        throws Exception
+    {
+        int port = startServer( stateDirectory );
+
+        DefaultBuildContextManager manager;
+        System.setProperty( DefaultBuildContextManager.STATE_SERVER_PROPERTY, port + "," + tokenFile.getPath() );
+        try
+        {
+            manager = new DefaultBuildContextManager();
+        }
+        finally
+        {
+            System.clearProperty( DefaultBuildContextManager.STATE_SERVER_PROPERTY );
+        }
+        assertTrue( manager.isStateServerAvailable() );
+
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value" );
+        ctx.commit();
+        ctx.close();
+        assertTrue( manager.isStateServerAvailable() );
+
+        server.close();
+        server = null;
+        manager.setStateServer( port, tokenFile );
+        ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value2" );
+        ctx.commit();
+        ctx.close();
+        assertFalse( manager.isStateServerAvailable() );
+    }
+
+    @Test
+    public void testServerRefusesStateFilesOutsideOfRoots()
+        throws Exception
+    {
+        int port = startServer( outputDirectory );
+
+        SharedStateBuildContextManager manager = new SharedStateBuildContextManager( null, port, tokenFile );
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value" );
+        ctx.commit();
+        ctx.close();
+        // a refused request must not disable the server for the state files it does serve
+        assertTrue( manager.isServerAvailable() );
+
+        DefaultBuildContextManager manager2 = new DefaultBuildContextManager();
+        BuildContext ctx2 = manager2.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertEquals( "value", ctx2.getValue( "key" ) );
+        }
+        finally
+        {
+            ctx2.close();
+        }
+    }
+
+    @Test
+    public void testOversizedStateFallsBackToFileWithoutDisablingServer()
+        throws Exception
+    {
+        int port = startServer( stateDirectory, 16 );
+
+        DefaultBuildContextManager manager = new DefaultBuildContextManager();
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value" );
+        ctx.commit();
+        ctx.close();
+
+        SharedStateBuildContextManager manager2 = new SharedStateBuildContextManager( null, port, tokenFile );
+        BuildContext ctx2 = manager2.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertEquals( "value", ctx2.getValue( "key" ) );
+        }
+        finally
+        {
+            ctx2.close();
+        }
+        assertTrue( manager2.isServerAvailable() );
+    }
+
+    @Test
+    public void testFallbackToFilesWhenServerNotRunning()
+        throws Exception
+    {
+        ServerSocket socket = new ServerSocket( 0 );
+        int port = socket.getLocalPort();
+        socket.close();
+
+        SharedStateBuildContextManager manager = new SharedStateBuildContextManager( null, port, tokenFile );
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value" );
+        ctx.commit();
+        ctx.close();
+        assertFalse( manager.isServerAvailable() );
+
+        SharedStateBuildContextManager manager2 = new SharedStateBuildContextManager( null, port, tokenFile );
+        BuildContext ctx2 = manager2.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        try
+        {
+            assertEquals( "value", ctx2.getValue( "key" ) );
+        }
+        finally
+        {
+            ctx2.close();
+        }
+    }
+
+    @Test
+    public void testClientRejectsServerWithDifferentToken()
+        throws Exception
+    {
+        int port = startServer( stateDirectory );
+
+        File otherTokenFile = new File( tokenDirectory, "other.token" );
+        Utils.writeBytes( otherTokenFile, new byte[BuildStateServer.TOKEN_LENGTH] );
+
+        SharedStateBuildContextManager manager = new SharedStateBuildContextManager( null, port, otherTokenFile );
+        BuildContext ctx = manager.newContext( outputDirectory, stateDirectory, "test-plugin:0.1" );
+        ctx.setValue( "key", "value" );
+        ctx.commit();
+        ctx.close();
+        assertFalse( manager.isServerAvailable() );
+
+        File[] stateFiles = stateDirectory.listFiles();
+        assertNotNull( stateFiles );
+        assertEquals( 1, stateFiles.length );
+        assertEquals( "value", BuildState.load( stateFiles[0] ).getValue( "key" ) );
+    }
+
+    @Test
+    public void testServerRefusesClientWithoutToken()
+        throws Exception
+    {
+        int port = startServer( stateDirectory );
+
+        Socket socket = new Socket( InetAddress.getByName( "127.0.0.1" ), port );
+        try
+        {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+            DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            out.write( BuildStateServer.newNonce() );
+            out.flush();
+            in.readFully( new byte[BuildStateServer.NONCE_LENGTH + BuildStateServer.MAC_LENGTH] );
+
+            out.write( new byte[BuildStateServer.MAC_LENGTH] );
+            out.writeByte( BuildStateServer.GET );
+            out.writeUTF( new File( stateDirectory, "00-00.ser" ).getPath() );
+            out.flush();
+            assertEquals( BuildStateServer.ERROR, in.readByte() );
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+}
@@ -11,12 +11,41 @@ package org.eclipse.tesla.incremental.internal;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 
 public class Utils
 {
 
+    /**
+     * Gets the number of bytes allocated by the current thread so far.
+     * 
+     * @return The allocated bytes or {@code -1} if the JVM does not support per-thread allocation accounting.
+     */
+    public static long getAllocatedBytes()
+    {
+        // the counter is a vendor extension of the management API, so look it up reflectively
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        try
+        {
+            Class<?> type = Class.forName( "com.sun.management.ThreadMXBean" );
+            if ( type.isInstance( threads ) )
+            {
+                Method method = type.getMethod( "getThreadAllocatedBytes", long.class );
+                Object bytes = method.invoke( threads, Long.valueOf( Thread.currentThread().getId() ) );
+                return ( (Number) bytes ).longValue();
+            }
+        }
+        catch ( Exception e )
+        {
+            // not supported
+        }
+        return -1;
+    }
+
     public static byte[] readBytes( File file )
         throws IOException
     {